@@ -0,0 +1,272 @@
+package com.jisoo.burp.unicodejson;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.base.ParserBase;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Summarizes a large top-level array of same-shaped objects in one streaming pass instead of
+// printing every element: the element count, each field with how often it holds each JSON type
+// (null included) or is missing, and the first and last SAMPLE_ELEMENTS elements printed as usual.
+// The summary is laid out like a JSON document so it highlights the same way:
+//
+//   { "count" : n, "schema" : { "id" : { "number" : n }, ... }, "first" : [ ... ], "last" : [ ... ] }
+final class ArraySummarizer {
+    static final int MIN_ELEMENTS = 10_000;
+    static final int SAMPLE_ELEMENTS = 5;
+    // Records share a shape when, between them, they have at most MAX_FIELDS distinct fields in at
+    // most MAX_KEY_SETS distinct combinations, and no more than MAX_INCOMPLETE_PERCENT of them lack
+    // any of those fields. Anything looser (maps keyed by id, mixed message types) is printed in full.
+    private static final int MAX_FIELDS = 256;
+    private static final int MAX_KEY_SETS = 16;
+    private static final int MAX_INCOMPLETE_PERCENT = 75;
+    private static final String[] TYPE_NAMES = {"string", "number", "boolean", "null", "object", "array"};
+
+    private ArraySummarizer() {
+    }
+
+    // Writes the summary of `source` to `output`, with the sampled elements mapped back to their
+    // offsets in `source` plus `rawShift`. Returns false, with `output` untouched, when `source` is
+    // not a large array of objects.
+    static boolean summarize(JsonFactory factory, String source, RenderResult.Builder output, int rawShift) {
+        if (!isCandidate(source)) {
+            return false;
+        }
+
+        Scan scan;
+        try (JsonParser parser = factory.createParser(source)) {
+            scan = scan(parser);
+        } catch (IOException e) {
+            return false;
+        }
+        if (scan == null || scan.count < MIN_ELEMENTS || !scan.sharesShape()) {
+            return false;
+        }
+
+        RenderResult.Mark mark = output.mark();
+        try {
+            write(factory, source, scan, new SpanJsonWriter(output, factory, source, rawShift), output);
+        } catch (IOException e) {
+            output.reset(mark);
+            return false;
+        }
+        output.markSummarized();
+        return true;
+    }
+
+    // A cheap check that `source` could be a large array of objects, before scanning it.
+    static boolean isCandidate(String source) {
+        // Every element takes at least "{}" and a comma.
+        return source.length() >= MIN_ELEMENTS * 3 && startsArray(source);
+    }
+
+    private static boolean startsArray(String source) {
+        for (int i = 0; i < source.length(); i++) {
+            char ch = source.charAt(i);
+            if (ch > ' ') {
+                return ch == '[';
+            }
+        }
+        return false;
+    }
+
+    // Returns null as soon as an element is not an object or the records stop sharing a shape.
+    private static Scan scan(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            return null;
+        }
+        Scan scan = new Scan();
+        ParserBase base = parser instanceof ParserBase p ? p : null;
+        // ParserBase's raw token offset is off from the reported location by a fixed amount, so
+        // measure that once instead of building a JsonLocation twice per element.
+        long skew = base == null ? 0 : base.getTokenCharacterOffset() - parser.currentTokenLocation().getCharOffset();
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token != JsonToken.START_OBJECT) {
+                return null;
+            }
+            int start = tokenOffset(parser, base, skew);
+            long keySet = 0;
+            int fieldCount = 0;
+            for (JsonToken name = parser.nextToken(); name != JsonToken.END_OBJECT; name = parser.nextToken()) {
+                if (name == null) {
+                    throw new IOException("Unexpected end of JSON input");
+                }
+                Field field = scan.fields.get(parser.currentName());
+                if (field == null) {
+                    if (scan.fields.size() == MAX_FIELDS) {
+                        return null;
+                    }
+                    field = new Field(scan.fields.size());
+                    scan.fields.put(parser.currentName(), field);
+                }
+                field.types[typeOf(parser.nextToken())]++;
+                keySet += field.hash;
+                fieldCount++;
+                parser.skipChildren();
+            }
+            if (!scan.addKeySet(keySet, fieldCount)) {
+                return null;
+            }
+            scan.add(start, tokenOffset(parser, base, skew) + 1);
+        }
+        return scan;
+    }
+
+    private static int tokenOffset(JsonParser parser, ParserBase base, long skew) {
+        if (base != null) {
+            return (int) (base.getTokenCharacterOffset() - skew);
+        }
+        return (int) parser.currentTokenLocation().getCharOffset();
+    }
+
+    private static int typeOf(JsonToken token) throws IOException {
+        if (token == null) {
+            throw new IOException("Unexpected end of JSON input");
+        }
+        return switch (token) {
+            case VALUE_STRING -> 0;
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> 1;
+            case VALUE_TRUE, VALUE_FALSE -> 2;
+            case VALUE_NULL -> 3;
+            case START_OBJECT -> 4;
+            case START_ARRAY -> 5;
+            default -> throw new IOException("Unexpected JSON token " + token);
+        };
+    }
+
+    private static void write(JsonFactory factory, String source, Scan scan, SpanJsonWriter writer,
+                              RenderResult.Builder output) throws IOException {
+        output.append('{');
+        writer.writeFieldName("count", true, 1);
+        writer.writeNumber(scan.count);
+
+        writer.writeFieldName("schema", false, 1);
+        output.append('{');
+        boolean firstField = true;
+        for (Map.Entry<String, Field> field : scan.fields.entrySet()) {
+            writer.writeFieldName(field.getKey(), firstField, 2);
+            output.append('{');
+            int[] types = field.getValue().types;
+            int present = 0;
+            boolean firstType = true;
+            for (int type = 0; type < types.length; type++) {
+                if (types[type] > 0) {
+                    writer.writeFieldName(TYPE_NAMES[type], firstType, 3);
+                    writer.writeNumber(types[type]);
+                    present += types[type];
+                    firstType = false;
+                }
+            }
+            if (present < scan.count) {
+                writer.writeFieldName("missing", firstType, 3);
+                writer.writeNumber(scan.count - present);
+            }
+            writer.newline(2);
+            output.append('}');
+            firstField = false;
+        }
+        closeContainer(writer, output, firstField, '}');
+
+        int lastCount = Math.min(SAMPLE_ELEMENTS, scan.count - SAMPLE_ELEMENTS);
+        writer.writeFieldName("first", false, 1);
+        output.append('[');
+        for (int i = 0; i < Math.min(SAMPLE_ELEMENTS, scan.count); i++) {
+            writeElement(factory, source, scan.firstStarts[i], scan.firstEnds[i], writer, i == 0);
+        }
+        closeContainer(writer, output, scan.count == 0, ']');
+
+        writer.writeFieldName("last", false, 1);
+        output.append('[');
+        for (int i = scan.count - lastCount; i < scan.count; i++) {
+            int slot = i % SAMPLE_ELEMENTS;
+            writeElement(factory, source, scan.lastStarts[slot], scan.lastEnds[slot], writer, i == scan.count - lastCount);
+        }
+        closeContainer(writer, output, lastCount <= 0, ']');
+
+        writer.newline(0);
+        output.append('}');
+    }
+
+    private static void closeContainer(SpanJsonWriter writer, RenderResult.Builder output, boolean empty, char close) {
+        if (empty) {
+            output.append(' ').append(close);
+            return;
+        }
+        writer.newline(1);
+        output.append(close);
+    }
+
+    // Prints one element at depth 2 from a parser over just its own text.
+    private static void writeElement(JsonFactory factory, String source, int start, int end, SpanJsonWriter writer,
+                                     boolean first) throws IOException {
+        char[] element = new char[end - start];
+        source.getChars(start, end, element, 0);
+        writer.seek(start);
+        try (JsonParser parser = factory.createParser(element)) {
+            parser.nextToken();
+            writer.writeArrayElement(parser, first, 2);
+        }
+    }
+
+    private static final class Field {
+        private final int[] types = new int[TYPE_NAMES.length];
+        // Summed over an object's fields, identifies its key set regardless of field order.
+        private final long hash;
+
+        private Field(int index) {
+            long mixed = (index + 1) * 0x9E3779B97F4A7C15L;
+            hash = mixed ^ (mixed >>> 29);
+        }
+    }
+
+    private static final class Scan {
+        private final Map<String, Field> fields = new LinkedHashMap<>();
+        // Elements per key set, and the number of fields in each.
+        private final Map<Long, int[]> keySets = new HashMap<>();
+        private final int[] firstStarts = new int[SAMPLE_ELEMENTS];
+        private final int[] firstEnds = new int[SAMPLE_ELEMENTS];
+        // The most recent elements, in a ring indexed by element number modulo SAMPLE_ELEMENTS.
+        private final int[] lastStarts = new int[SAMPLE_ELEMENTS];
+        private final int[] lastEnds = new int[SAMPLE_ELEMENTS];
+        private int count;
+
+        // Returns false once there are too many key sets for the elements to share a shape.
+        private boolean addKeySet(long keySet, int fieldCount) {
+            int[] stats = keySets.get(keySet);
+            if (stats == null) {
+                if (keySets.size() == MAX_KEY_SETS) {
+                    return false;
+                }
+                stats = new int[]{0, fieldCount};
+                keySets.put(keySet, stats);
+            }
+            stats[0]++;
+            return true;
+        }
+
+        private boolean sharesShape() {
+            long incomplete = 0;
+            for (int[] stats : keySets.values()) {
+                if (stats[1] < fields.size()) {
+                    incomplete += stats[0];
+                }
+            }
+            return incomplete * 100 <= (long) count * MAX_INCOMPLETE_PERCENT;
+        }
+
+        private void add(int start, int end) {
+            if (count < SAMPLE_ELEMENTS) {
+                firstStarts[count] = start;
+                firstEnds[count] = end;
+            }
+            lastStarts[count % SAMPLE_ELEMENTS] = start;
+            lastEnds[count % SAMPLE_ELEMENTS] = end;
+            count++;
+        }
+    }
+}
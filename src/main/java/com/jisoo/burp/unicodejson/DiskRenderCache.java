@@ -0,0 +1,516 @@
+package com.jisoo.burp.unicodejson;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Render cache that survives restarts: an append-only log of rendered bodies (text, span table and
+// source map), read through memory mappings. The index of record offsets lives in memory and is
+// rebuilt from the record headers on open. Appends and compaction run on one background writer
+// thread, so callers never wait for the disk. When an append would push the log past its cap, the
+// most recently used records are copied into the log of the next generation, which takes over;
+// a log is never replaced in place, since files that are still mapped cannot be replaced on
+// Windows. One Burp instance at a time owns the directory, through a lock on a separate lock file.
+final class DiskRenderCache {
+    private static final String LOG_PREFIX = "renders-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String LOCK_FILE = "renders.lock";
+    private static final int MAGIC = 0x554A5232; // "UJR2"
+    private static final int KEY_BYTES = 32;
+    // magic, key, text chars, span count, source map runs, source map bytes
+    private static final int HEADER_BYTES = 4 + KEY_BYTES + 4 + 4 + 4 + 4;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(64, 0.75f, true);
+    // Keys queued for the writer, and the bytes their records will take; both bounded so a burst
+    // of large renders cannot pile up in memory behind a slow disk.
+    private final Set<String> pending = new HashSet<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "unicode-json-disk-cache");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private long pendingBytes;
+    // Set before the writer shuts down, so no put can race close() into a rejected task.
+    private boolean closed;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private long generation;
+    private FileChannel channel;
+    // Only the writer thread moves the end of the log once the cache is open.
+    private long end;
+
+    private DiskRenderCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    static DiskRenderCache open(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        DiskRenderCache cache = new DiskRenderCache(directory, maxBytes);
+        cache.lock();
+        try {
+            cache.load();
+        } catch (IOException e) {
+            cache.close();
+            throw e;
+        }
+        return cache;
+    }
+
+    // Next to Burp's own user settings: %APPDATA%\BurpSuite on Windows, ~/.BurpSuite elsewhere.
+    static Path defaultDirectory() {
+        String appData = System.getenv("APPDATA");
+        boolean windows = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+        Path burpConfig = windows && appData != null
+                ? Path.of(appData, "BurpSuite")
+                : Path.of(System.getProperty("user.home"), ".BurpSuite");
+        return burpConfig.resolve("unicode-json-viewer");
+    }
+
+    static String keyFor(byte[] body, String contentType, int transformerVersion) {
+        MessageDigest digest = sha256();
+        digest.update(ByteBuffer.allocate(4).putInt(transformerVersion).array());
+        digest.update((contentType == null ? "" : contentType).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(body);
+        return HEX.formatHex(digest.digest());
+    }
+
+    synchronized RenderResult get(String key) {
+        Entry entry = index.get(key);
+        if (entry == null || channel == null) {
+            return null;
+        }
+        try {
+            return readRecord(channel.map(FileChannel.MapMode.READ_ONLY, entry.offset(), entry.length()), key);
+        } catch (IOException | RuntimeException e) {
+            index.remove(key);
+            return null;
+        }
+    }
+
+    // Queues `rendered` for the writer thread; it can be read back once written.
+    synchronized void put(String key, RenderResult rendered) {
+        if (closed || channel == null || index.containsKey(key) || pending.contains(key)) {
+            return;
+        }
+        long length = recordLength(rendered.text().length(), rendered.spans().size(), rendered.sourceMap().size(),
+                rendered.sourceMap().encodedLength());
+        if (pendingBytes + length > maxBytes / 4) {
+            return;
+        }
+        pending.add(key);
+        pendingBytes += length;
+        writer.execute(() -> append(key, rendered, length));
+    }
+
+    // Waits until everything queued so far has been written.
+    void flush() throws InterruptedException, ExecutionException {
+        writer.submit(() -> { }).get();
+    }
+
+    // Lets queued writes finish for a few seconds, then releases the log and the directory.
+    void close() {
+        synchronized (this) {
+            closed = true;
+            writer.shutdown();
+        }
+        try {
+            if (!writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeQuietly(channel);
+            // Closing the channel releases the lock as well.
+            closeQuietly(lockChannel);
+            channel = null;
+            lockChannel = null;
+            lock = null;
+            index.clear();
+        }
+    }
+
+    // The log currently written to; tests use it to damage or measure the file.
+    synchronized Path logFile() {
+        return logFile(generation);
+    }
+
+    // Two instances appending to one log would each write at their own idea of its end, over each
+    // other's records, so a directory another instance holds is refused.
+    private void lock() throws IOException {
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            close();
+            throw new IOException("Render cache " + directory + " is in use by another Burp instance");
+        }
+    }
+
+    private void load() throws IOException {
+        generation = latestGeneration();
+        channel = FileChannel.open(logFile(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        byte[] key = new byte[KEY_BYTES];
+        long offset = 0;
+        while (offset + HEADER_BYTES <= fileSize) {
+            header.clear();
+            while (header.hasRemaining() && channel.read(header, offset + header.position()) >= 0) {
+                // Keep reading until the header is complete.
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                break;
+            }
+            header.get(key);
+            long length = recordLength(header.getInt(), header.getInt(), header.getInt(), header.getInt());
+            if (length <= HEADER_BYTES || offset + length > fileSize) {
+                break;
+            }
+            index.put(HEX.formatHex(key), new Entry(offset, (int) length));
+            offset += length;
+        }
+
+        // Anything after the last complete record is a write torn by a crash.
+        if (offset < fileSize) {
+            channel.truncate(offset);
+        }
+        end = offset;
+        if (end > maxBytes) {
+            writer.execute(() -> compact(maxBytes / 2));
+        }
+    }
+
+    // Picks the newest generation's log and deletes older logs and unfinished compactions, which
+    // a previous run could not delete while they were still mapped.
+    private long latestGeneration() throws IOException {
+        List<Path> logs = new ArrayList<>();
+        long latest = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String number = name.substring(LOG_PREFIX.length(), name.indexOf('.') < 0 ? name.length() : name.indexOf('.'));
+                if (!name.endsWith(LOG_SUFFIX) || !number.chars().allMatch(Character::isDigit) || number.isEmpty()) {
+                    deleteQuietly(file);
+                    continue;
+                }
+                logs.add(file);
+                latest = Math.max(latest, Long.parseLong(number));
+            }
+        }
+        Path latestLog = logFile(latest);
+        for (Path log : logs) {
+            if (!log.equals(latestLog)) {
+                deleteQuietly(log);
+            }
+        }
+        return latest;
+    }
+
+    private Path logFile(long logGeneration) {
+        return directory.resolve(LOG_PREFIX + logGeneration + LOG_SUFFIX);
+    }
+
+    // Runs on the writer thread.
+    private void append(String key, RenderResult rendered, long length) {
+        try {
+            FileChannel target;
+            synchronized (this) {
+                target = channel;
+            }
+            if (target == null) {
+                return;
+            }
+            if (end + length > maxBytes) {
+                compact(maxBytes / 2);
+                synchronized (this) {
+                    target = channel;
+                }
+            }
+            writeRecord(target, end, key, rendered, length);
+            synchronized (this) {
+                if (channel == target) {
+                    index.put(key, new Entry(end, (int) length));
+                    end += length;
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+            // Best effort: a failed write only means the body is rendered again next time.
+        } finally {
+            synchronized (this) {
+                pending.remove(key);
+                pendingBytes -= length;
+            }
+        }
+    }
+
+    // Runs on the writer thread: copies the most recently used records, up to `target` bytes, into
+    // the next generation's log and switches to it. Readers keep using the old log until then.
+    private void compact(long target) {
+        FileChannel source;
+        List<Map.Entry<String, Entry>> entries;
+        synchronized (this) {
+            source = channel;
+            entries = new ArrayList<>(index.entrySet());
+        }
+        if (source == null) {
+            return;
+        }
+        int first = entries.size();
+        long kept = 0;
+        while (first > 0 && kept + entries.get(first - 1).getValue().length() <= target) {
+            first--;
+            kept += entries.get(first).getValue().length();
+        }
+
+        long nextGeneration = generation + 1;
+        Path compacted = logFile(nextGeneration);
+        Path partial = directory.resolve(compacted.getFileName() + ".tmp");
+        LinkedHashMap<String, Entry> compactedIndex = new LinkedHashMap<>(64, 0.75f, true);
+        long position = 0;
+        FileChannel next = null;
+        try {
+            try (FileChannel out = FileChannel.open(partial,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (int i = first; i < entries.size(); i++) {
+                    Entry entry = entries.get(i).getValue();
+                    long copied = 0;
+                    while (copied < entry.length()) {
+                        copied += source.transferTo(entry.offset() + copied, entry.length() - copied, out);
+                    }
+                    compactedIndex.put(entries.get(i).getKey(), new Entry(position, entry.length()));
+                    position += entry.length();
+                }
+                out.force(false);
+            }
+            // The new log only appears under its final name once it is complete.
+            Files.move(partial, compacted, StandardCopyOption.ATOMIC_MOVE);
+            next = FileChannel.open(compacted, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            closeQuietly(next);
+            deleteQuietly(partial);
+            deleteQuietly(compacted);
+            return;
+        }
+
+        Path previous;
+        synchronized (this) {
+            if (channel != source) {
+                closeQuietly(next);
+                return;
+            }
+            previous = logFile(generation);
+            channel = next;
+            generation = nextGeneration;
+            index.clear();
+            index.putAll(compactedIndex);
+            end = position;
+        }
+        closeQuietly(source);
+        // On Windows this fails while earlier reads are still mapped; the next open deletes it.
+        deleteQuietly(previous);
+    }
+
+    private static long recordLength(int textChars, int spanCount, int sourceMapRuns, int sourceMapBytes) {
+        if (textChars < 0 || spanCount < 0 || sourceMapRuns < 0 || sourceMapBytes < 0) {
+            return -1;
+        }
+        return HEADER_BYTES + textChars * 2L + spanCount * 9L + sourceMapBytes;
+    }
+
+    private static void writeRecord(FileChannel channel, long position, String key, RenderResult rendered, long length)
+            throws IOException {
+        String text = rendered.text();
+        TokenSpans spans = rendered.spans();
+        SourceMap sourceMap = rendered.sourceMap();
+
+        // The magic goes in last, and only after the rest of the record has been forced to disk, so
+        // a record cut short by a crash never carries it: without the first force the page holding
+        // the magic could reach the disk before the pages holding the data.
+        RecordWriter out = new RecordWriter(channel, position);
+        out.putInt(0);
+        out.put(HEX.parseHex(key));
+        out.putInt(text.length());
+        out.putInt(spans.size());
+        out.putInt(sourceMap.size());
+        out.putInt(sourceMap.encodedLength());
+        for (int i = 0; i < text.length(); i++) {
+            out.putChar(text.charAt(i));
+        }
+        for (int i = 0; i < spans.size(); i++) {
+            out.putInt(spans.start(i));
+        }
+        for (int i = 0; i < spans.size(); i++) {
+            out.putInt(spans.length(i));
+        }
+        for (int i = 0; i < spans.size(); i++) {
+            out.put(spans.type(i));
+        }
+        out.put(sourceMap.toBytes());
+        out.flush();
+        if (out.position() != position + length) {
+            throw new IllegalStateException("Render cache record has an unexpected length");
+        }
+        channel.force(false);
+        writeFully(channel, ByteBuffer.allocate(4).putInt(0, MAGIC), position);
+        channel.force(false);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static RenderResult readRecord(ByteBuffer record, String key) {
+        if (record.getInt() != MAGIC) {
+            throw new IllegalStateException("Corrupt render cache record");
+        }
+        byte[] storedKey = new byte[KEY_BYTES];
+        record.get(storedKey);
+        if (!Arrays.equals(storedKey, HEX.parseHex(key))) {
+            throw new IllegalStateException("Render cache record belongs to another key");
+        }
+        int textChars = record.getInt();
+        int spanCount = record.getInt();
+        int sourceMapRuns = record.getInt();
+        int sourceMapBytes = record.getInt();
+
+        char[] text = new char[textChars];
+        record.asCharBuffer().get(text);
+        record.position(record.position() + textChars * 2);
+
+        int[] starts = new int[spanCount];
+        int[] lengths = new int[spanCount];
+        record.asIntBuffer().get(starts);
+        record.position(record.position() + spanCount * 4);
+        record.asIntBuffer().get(lengths);
+        record.position(record.position() + spanCount * 4);
+        TokenSpans spans = new TokenSpans();
+        for (int i = 0; i < spanCount; i++) {
+            spans.add(starts[i], lengths[i], record.get());
+        }
+
+        byte[] sourceMap = new byte[sourceMapBytes];
+        record.get(sourceMap);
+        return new RenderResult(new String(text), spans, SourceMap.fromBytes(sourceMap, sourceMapRuns));
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing left to do; the log is append-only and re-validated on open.
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Left for the next open to clean up.
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private record Entry(long offset, int length) {
+    }
+
+    // Streams a record into the log through one small buffer instead of mapping it.
+    private static final class RecordWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+        private long position;
+
+        private RecordWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        private void put(byte value) throws IOException {
+            room(1).put(value);
+        }
+
+        private void put(byte[] values) throws IOException {
+            for (int offset = 0; offset < values.length; offset += WRITE_BUFFER_BYTES) {
+                int length = Math.min(WRITE_BUFFER_BYTES, values.length - offset);
+                room(length).put(values, offset, length);
+            }
+        }
+
+        private void putChar(char value) throws IOException {
+            room(2).putChar(value);
+        }
+
+        private void putInt(int value) throws IOException {
+            room(4).putInt(value);
+        }
+
+        private long position() {
+            return position + buffer.position();
+        }
+
+        private ByteBuffer room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            int written = buffer.remaining();
+            writeFully(channel, buffer, position);
+            position += written;
+            buffer.clear();
+        }
+    }
+}
@@ -2,51 +2,82 @@ package com.jisoo.burp.unicodejson;
 
 import burp.api.montoya.MontoyaApi;
 
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JScrollBar;
 import javax.swing.JTextPane;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
+import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.FlowLayout;
 import java.awt.Font;
+import java.awt.Point;
 import java.awt.event.MouseWheelEvent;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 
 final class JsonViewerPane {
-    private static final Pattern STRING_PATTERN = Pattern.compile("\"(?:\\\\.|[^\"\\\\])*\"");
-    private static final Pattern KEYWORD_PATTERN = Pattern.compile("\\b(?:true|false|null)\\b");
-    private static final Pattern NUMBER_PATTERN = Pattern.compile("-?(?:0|[1-9]\\d*)(?:\\.\\d+)?(?:[eE][+-]?\\d+)?");
     private static final int WHEEL_BASE_PIXELS = 28;
     private static final int WHEEL_MAX_PIXELS = 96;
-    // Regex-based highlighting is O(n*m); skip it for very large bodies to keep the UI responsive.
-    private static final int MAX_HIGHLIGHT_CHARS = 300_000;
+    // A styled document keeps per-run elements and lays out every line; beyond this size the
+    // pane switches to VirtualTextView, which paints only the visible lines.
+    private static final int MAX_STYLED_DOCUMENT_CHARS = 300_000;
 
     private final JTextPane textPane = new JTextPane();
+    private final VirtualTextView virtualView = new VirtualTextView();
     private final SmoothScrollPane scrollPane = new SmoothScrollPane(textPane);
+    private final JPanel container = new JPanel(new BorderLayout());
+    // Shown above summarized content, with a button that asks the editor for the full render.
+    private final JPanel summaryBar = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 2));
+    private final JButton showFullButton = new JButton("Show full rendering");
+    private Runnable showFullAction;
     private final Style baseStyle;
     private final Style keyStyle;
     private final Style stringStyle;
     private final Style numberStyle;
     private final Style keywordStyle;
+    private ContentWorker contentWorker;
+    private boolean virtualMode;
+    // What a stream has put in the styled document so far, so it can move to the virtual view once it outgrows it.
+    private RenderResult.Builder styledContent;
+    // Collects the source maps of a stream's chunks; null while whole content is shown.
+    private SourceMap.Builder sourceMap;
+    // The shown content's own map, or one built from `sourceMap` on first use after a chunk arrived.
+    private SourceMap builtSourceMap = SourceMap.EMPTY;
+    private RenderResult.RawLayout rawLayout;
 
     JsonViewerPane(MontoyaApi api) {
-        textPane.setEditable(true);
+        textPane.setEditable(false);
         textPane.setDocument(new DefaultStyledDocument());
-        api.userInterface().applyThemeToComponent(scrollPane);
+        summaryBar.add(new JLabel("Large array summarized: element count, field schema, first and last elements."));
+        summaryBar.add(showFullButton);
+        summaryBar.setVisible(false);
+        showFullButton.addActionListener(event -> {
+            if (showFullAction != null) {
+                showFullAction.run();
+            }
+        });
+        container.add(summaryBar, BorderLayout.NORTH);
+        container.add(scrollPane, BorderLayout.CENTER);
+        api.userInterface().applyThemeToComponent(container);
         configureScrollBehavior();
 
         Font editorFont = api.userInterface().currentEditorFont();
         if (editorFont != null) {
             textPane.setFont(editorFont);
         }
+        virtualView.setFont(textPane.getFont());
 
         StyledDocument document = textPane.getStyledDocument();
         baseStyle = document.addStyle("base", null);
@@ -69,133 +100,162 @@ final class JsonViewerPane {
         StyleConstants.setForeground(keywordStyle, dark ? new Color(217, 155, 255) : new Color(142, 39, 173));
         StyleConstants.setBold(keyStyle, true);
         StyleConstants.setBold(keywordStyle, true);
+
+        virtualView.setBackground(background == null ? Color.WHITE : background);
+        virtualView.setStyleColors(
+                base,
+                StyleConstants.getForeground(keyStyle),
+                StyleConstants.getForeground(stringStyle),
+                StyleConstants.getForeground(numberStyle),
+                StyleConstants.getForeground(keywordStyle),
+                textPane.getSelectionColor());
     }
 
     Component component() {
-        return scrollPane;
+        return container;
+    }
+
+    // Runs on the event dispatch thread when the user asks to replace a summary with the full render.
+    void onShowFull(Runnable action) {
+        showFullAction = action;
     }
 
-    void setContent(String text) {
-        String safeText = text == null ? "" : normalizeLineSeparators(text);
+    void setContent(RenderResult content) {
+        RenderResult safeContent = content == null ? RenderResult.plain("") : content;
         if (SwingUtilities.isEventDispatchThread()) {
-            applyContent(safeText);
+            applyContent(safeContent);
         } else {
-            SwingUtilities.invokeLater(() -> applyContent(safeText));
+            SwingUtilities.invokeLater(() -> applyContent(safeContent));
         }
     }
 
-    private void applyContent(String safeText) {
-        textPane.setText(safeText);
-        highlightJsonIfPossible(safeText);
-        textPane.setCaretPosition(0);
+    int selectionStart() {
+        return virtualMode ? virtualView.selectionStart() : textPane.getSelectionStart();
     }
 
-    private void highlightJsonIfPossible(String text) {
-        StyledDocument document = textPane.getStyledDocument();
-        document.setCharacterAttributes(0, text.length(), baseStyle, true);
+    int selectionEnd() {
+        return virtualMode ? virtualView.selectionEnd() : textPane.getSelectionEnd();
+    }
 
-        if (text.length() > MAX_HIGHLIGHT_CHARS) {
-            return;
+    // Source map of everything shown so far, relative to the start of the displayed text.
+    SourceMap sourceMap() {
+        if (builtSourceMap == null) {
+            builtSourceMap = sourceMap.build();
         }
+        return builtSourceMap;
+    }
 
-        if (isLikelyJson(text)) {
-            applyJsonHighlight(document, text, 0);
-            return;
-        }
+    // How the message behind the shown content was read; see RenderResult.RawLayout.
+    RenderResult.RawLayout rawLayout() {
+        return rawLayout;
+    }
 
-        int bodyStart = httpBodyStart(text);
-        if (bodyStart >= 0 && bodyStart < text.length()) {
-            String body = text.substring(bodyStart);
-            if (isLikelyJson(body)) {
-                applyJsonHighlight(document, body, bodyStart);
-            }
+    void streamContent(ContentProducer producer) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            startStream(producer);
+        } else {
+            SwingUtilities.invokeLater(() -> startStream(producer));
         }
     }
 
-    private void applyJsonHighlight(StyledDocument document, String jsonText, int offset) {
-        List<Range> keyRanges = new ArrayList<>();
-        List<Range> stringRanges = new ArrayList<>();
-        Matcher stringMatcher = STRING_PATTERN.matcher(jsonText);
-        while (stringMatcher.find()) {
-            int start = offset + stringMatcher.start();
-            int end = offset + stringMatcher.end();
-            if (isJsonKey(jsonText, stringMatcher.end())) {
-                int keyEnd = end;
-                keyRanges.add(new Range(start, keyEnd));
-                document.setCharacterAttributes(start, keyEnd - start, keyStyle, true);
-            } else {
-                stringRanges.add(new Range(start, end));
-                document.setCharacterAttributes(start, end - start, stringStyle, true);
-            }
-        }
+    private void startStream(ContentProducer producer) {
+        applyContent(RenderResult.plain(""));
+        styledContent = new RenderResult.Builder();
+        sourceMap = new SourceMap.Builder();
+        ContentWorker worker = new ContentWorker(producer);
+        contentWorker = worker;
+        worker.execute();
+    }
 
-        boolean[] occupied = new boolean[document.getLength()];
-        markRanges(occupied, keyRanges);
-        markRanges(occupied, stringRanges);
+    private void applyContent(RenderResult content) {
+        if (contentWorker != null) {
+            contentWorker.cancel(false);
+            contentWorker = null;
+        }
+        styledContent = null;
+        summaryBar.setVisible(content.summarized());
+        sourceMap = null;
+        builtSourceMap = content.sourceMap();
+        rawLayout = content.rawLayout();
+        if (content.text().length() > MAX_STYLED_DOCUMENT_CHARS) {
+            showVirtualView(content);
+            return;
+        }
 
-        highlightPattern(document, jsonText, occupied, NUMBER_PATTERN, numberStyle, offset);
-        highlightPattern(document, jsonText, occupied, KEYWORD_PATTERN, keywordStyle, offset);
+        showStyledDocument();
+        textPane.setText(content.text());
+        StyledDocument document = textPane.getStyledDocument();
+        document.setCharacterAttributes(0, content.text().length(), baseStyle, true);
+        applySpans(document, content.spans(), 0);
+        textPane.setCaretPosition(0);
     }
 
-    private void highlightPattern(StyledDocument document, String text, boolean[] occupied, Pattern pattern, Style style, int offset) {
-        Matcher matcher = pattern.matcher(text);
-        while (matcher.find()) {
-            int start = offset + matcher.start();
-            int end = offset + matcher.end();
-            if (!isRangeOccupied(occupied, start, end)) {
-                document.setCharacterAttributes(start, end - start, style, true);
-            }
+    private void showStyledDocument() {
+        if (virtualMode) {
+            virtualView.setText("");
+            scrollPane.setViewportView(textPane);
+            virtualMode = false;
         }
     }
 
-    private static void markRanges(boolean[] occupied, List<Range> ranges) {
-        for (Range range : ranges) {
-            for (int i = range.start; i < range.end && i < occupied.length; i++) {
-                occupied[i] = true;
-            }
+    private void showVirtualView(RenderResult content) {
+        textPane.setText("");
+        styledContent = null;
+        virtualView.setText(content.text());
+        virtualView.addSpans(content.spans(), 0);
+        if (!virtualMode) {
+            scrollPane.setViewportView(virtualView);
+            virtualMode = true;
         }
+        scrollPane.getViewport().setViewPosition(new Point(0, 0));
     }
 
-    private static boolean isRangeOccupied(boolean[] occupied, int start, int end) {
-        for (int i = start; i < end && i < occupied.length; i++) {
-            if (occupied[i]) {
-                return true;
-            }
+    private void appendContent(RenderResult chunk) {
+        sourceMap.append(chunk.sourceMap(), virtualMode ? virtualView.length() : styledContent.length(), 0);
+        builtSourceMap = null;
+        if (rawLayout == null) {
+            rawLayout = chunk.rawLayout();
+        }
+        if (virtualMode) {
+            int offset = virtualView.length();
+            virtualView.append(chunk.text());
+            virtualView.addSpans(chunk.spans(), offset);
+            return;
         }
-        return false;
-    }
 
-    private static boolean isJsonKey(String json, int stringEnd) {
-        int index = stringEnd;
-        while (index < json.length() && Character.isWhitespace(json.charAt(index))) {
-            index++;
+        styledContent.append(chunk);
+        if (styledContent.length() > MAX_STYLED_DOCUMENT_CHARS) {
+            showVirtualView(styledContent.build());
+            return;
         }
-        return index < json.length() && json.charAt(index) == ':';
-    }
 
-    private static boolean isLikelyJson(String text) {
-        if (text == null) {
-            return false;
+        StyledDocument document = textPane.getStyledDocument();
+        int offset = document.getLength();
+        try {
+            document.insertString(offset, chunk.text(), baseStyle);
+        } catch (BadLocationException ignored) {
+            return;
         }
-        String trimmed = text.trim();
-        if (trimmed.isEmpty()) {
-            return false;
+        applySpans(document, chunk.spans(), offset);
+        if (offset == 0) {
+            textPane.setCaretPosition(0);
         }
-        return (trimmed.charAt(0) == '{' && trimmed.charAt(trimmed.length() - 1) == '}')
-                || (trimmed.charAt(0) == '[' && trimmed.charAt(trimmed.length() - 1) == ']');
     }
 
-    private static int httpBodyStart(String text) {
-        if (text == null || text.isEmpty()) {
-            return -1;
+    private void applySpans(StyledDocument document, TokenSpans spans, int offset) {
+        for (int i = 0; i < spans.size(); i++) {
+            document.setCharacterAttributes(offset + spans.start(i), spans.length(i), styleFor(spans.type(i)), true);
         }
-        // Line separators are normalized to '\n' before highlighting, so only "\n\n" occurs here.
-        int lf = text.indexOf("\n\n");
-        return lf >= 0 ? lf + 2 : -1;
     }
 
-    private static String normalizeLineSeparators(String input) {
-        return input.replace("\r\n", "\n").replace('\r', '\n');
+    private Style styleFor(byte type) {
+        return switch (type) {
+            case TokenSpans.KEY -> keyStyle;
+            case TokenSpans.STRING -> stringStyle;
+            case TokenSpans.NUMBER -> numberStyle;
+            case TokenSpans.KEYWORD -> keywordStyle;
+            default -> baseStyle;
+        };
     }
 
     private static boolean isDarkColor(Color color) {
@@ -222,7 +282,7 @@ final class JsonViewerPane {
     private static final class SmoothScrollPane extends JScrollPane {
         private double wheelRemainder;
 
-        private SmoothScrollPane(JTextPane view) {
+        private SmoothScrollPane(Component view) {
             super(view);
         }
 
@@ -263,6 +323,37 @@ final class JsonViewerPane {
         }
     }
 
-    private record Range(int start, int end) {
+    @FunctionalInterface
+    interface ContentProducer {
+        void produce(Consumer<RenderResult> sink);
+    }
+
+    private final class ContentWorker extends SwingWorker<Void, RenderResult> {
+        private final ContentProducer producer;
+
+        private ContentWorker(ContentProducer producer) {
+            this.producer = producer;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            producer.produce(chunk -> {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+                publish(chunk);
+            });
+            return null;
+        }
+
+        @Override
+        protected void process(List<RenderResult> chunks) {
+            if (contentWorker != this) {
+                return;
+            }
+            for (RenderResult chunk : chunks) {
+                appendContent(chunk);
+            }
+        }
     }
 }
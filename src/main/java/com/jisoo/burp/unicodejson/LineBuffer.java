@@ -0,0 +1,98 @@
+package com.jisoo.burp.unicodejson;
+
+import java.util.Arrays;
+
+// Append-only text with a line-start index. StringBuilder keeps Latin-1 text at one byte per char,
+// and the index is a single int per line, so millions of lines stay cheap to hold and to seek.
+final class LineBuffer {
+    private final StringBuilder text = new StringBuilder();
+    private int[] lineStarts = new int[]{0};
+    private int lineCount = 1;
+    private int maxLineColumns;
+    private int lastLineColumns;
+
+    int length() {
+        return text.length();
+    }
+
+    int lineCount() {
+        return lineCount;
+    }
+
+    int maxLineColumns() {
+        return maxLineColumns;
+    }
+
+    CharSequence text() {
+        return text;
+    }
+
+    int lineStart(int line) {
+        return lineStarts[line];
+    }
+
+    // End of the line's content, excluding its '\n'.
+    int lineEnd(int line) {
+        return line + 1 < lineCount ? lineStarts[line + 1] - 1 : text.length();
+    }
+
+    int lineOf(int offset) {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    void getChars(int start, int end, char[] destination) {
+        text.getChars(start, end, destination, 0);
+    }
+
+    String substring(int start, int end) {
+        return text.substring(start, end);
+    }
+
+    void clear() {
+        text.setLength(0);
+        lineStarts = new int[]{0};
+        lineCount = 1;
+        maxLineColumns = 0;
+        lastLineColumns = 0;
+    }
+
+    void append(String chunk) {
+        int base = text.length();
+        text.append(chunk);
+        int columns = lastLineColumns;
+        for (int i = 0; i < chunk.length(); i++) {
+            char ch = chunk.charAt(i);
+            if (ch == '\n') {
+                maxLineColumns = Math.max(maxLineColumns, columns);
+                addLineStart(base + i + 1);
+                columns = 0;
+            } else {
+                columns += columnWidth(ch);
+            }
+        }
+        lastLineColumns = columns;
+        maxLineColumns = Math.max(maxLineColumns, columns);
+    }
+
+    // CJK and other wide characters occupy two columns in a monospaced editor font.
+    static int columnWidth(char ch) {
+        return ch >= 0x1100 && !Character.isSurrogate(ch) && ch < 0xFF61 ? 2 : 1;
+    }
+
+    private void addLineStart(int offset) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+        }
+        lineStarts[lineCount++] = offset;
+    }
+}
@@ -1,104 +1,440 @@
 package com.jisoo.burp.unicodejson;
 
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.message.HttpMessage;
 import burp.api.montoya.http.message.requests.HttpRequest;
 import burp.api.montoya.http.message.responses.HttpResponse;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.util.DefaultIndenter;
-import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
-
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 final class MessageTransformer {
+    // Bump whenever rendered output changes, so the disk cache never serves renders from an older build.
+    static final int RENDER_VERSION = 3;
     private static final String CRLF_CRLF = "\r\n\r\n";
     private static final String LF_LF = "\n\n";
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final ObjectWriter prettyWriter = objectMapper.writer(prettyPrinter());
+    // Full renders of summarized messages are cached next to their summaries under this suffix.
+    private static final String FULL_RENDER_KEY = "/full";
+    private static final int FIRST_RECORD_BATCH = 32;
+    private static final int RECORD_BATCH = 512;
+    private static final int PARALLEL_RECORD_THRESHOLD = 64;
+    private static final long MAX_CACHED_CHARS = 32L * 1024 * 1024;
+    // A rendered body weighs about three chars in the render cache per body byte: the printed
+    // text, its spans and its source map.
+    private static final int RENDER_WEIGHT_PER_BODY_BYTE = 3;
+    private static final int PARALLEL_CONTAINER_THRESHOLD = 8_192;
+    private static final int MIN_PARALLEL_CHUNK = 1_024;
+    // Bodies shorter than this many chars per parallel member are not worth a boundary pass.
+    private static final int MIN_PARALLEL_MEMBER_CHARS = 8;
+    private static final int MIN_DISK_CACHED_BYTES = 64 * 1024;
+    private static final int SUMMARY_CAPACITY = 4 * 1024;
+    // Per-thread scratch for escape decoding; one that grew past this is dropped rather than kept.
+    private static final int MAX_RETAINED_SCRATCH_CHARS = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> DECODE_SCRATCH = ThreadLocal.withInitial(() -> new StringBuilder(256));
+    // Parsers are created per document, but their char and text buffers come from a thread-local
+    // pool, so renders on one thread keep reusing the same buffers.
+    private final JsonFactory jsonFactory = JsonFactory.builder()
+            .recyclerPool(JsonRecyclerPools.threadLocalPool())
+            .build();
+    private final RenderCache renderCache = new RenderCache(MAX_CACHED_CHARS);
+    private final int parallelThreshold;
+    private final DiskRenderCache diskCache;
+
+    MessageTransformer() {
+        this(PARALLEL_CONTAINER_THRESHOLD, null);
+    }
+
+    MessageTransformer(DiskRenderCache diskCache) {
+        this(PARALLEL_CONTAINER_THRESHOLD, diskCache);
+    }
+
+    // Top-level arrays and objects with at least `parallelThreshold` members are printed in parallel.
+    MessageTransformer(int parallelThreshold) {
+        this(parallelThreshold, null);
+    }
 
-    String renderRequest(HttpRequest request) {
-        if (request == null) {
-            return "";
+    // Bodies of at least MIN_DISK_CACHED_BYTES are also kept in `diskCache` when one is given.
+    MessageTransformer(int parallelThreshold, DiskRenderCache diskCache) {
+        this.parallelThreshold = parallelThreshold;
+        this.diskCache = diskCache;
+    }
+
+    // Renders of larger bodies are not kept in the render cache, so rendering them ahead of time is wasted.
+    long maxCachedBodyBytes() {
+        return renderCache.maxEntryWeight() / RENDER_WEIGHT_PER_BODY_BYTE;
+    }
+
+    // Large arrays of same-shaped records come back summarized; see ArraySummarizer.
+    RenderResult renderRequest(HttpRequest request) {
+        return render(request, true);
+    }
+
+    RenderResult renderRequestInFull(HttpRequest request) {
+        return render(request, false);
+    }
+
+    void renderRequest(HttpRequest request, Consumer<RenderResult> sink) {
+        render(request, true, sink);
+    }
+
+    RenderResult renderResponse(HttpResponse response) {
+        return render(response, true);
+    }
+
+    RenderResult renderResponseInFull(HttpResponse response) {
+        return render(response, false);
+    }
+
+    void renderResponse(HttpResponse response, Consumer<RenderResult> sink) {
+        render(response, true, sink);
+    }
+
+    private RenderResult render(HttpMessage message, boolean summarize) {
+        RenderResult.Builder output = new RenderResult.Builder();
+        render(message, summarize, output::append);
+        return output.build();
+    }
+
+    private void render(HttpMessage message, boolean summarize, Consumer<RenderResult> sink) {
+        if (message == null) {
+            return;
+        }
+
+        renderMessage(
+                message.toString(),
+                message.body().getBytes(),
+                message.bodyToString(),
+                message.headerValue("Content-Type"),
+                summarize,
+                sink);
+    }
+
+    static boolean isRecordStream(HttpMessage message) {
+        return message != null && RecordSplitter.formatFor(message.headerValue("Content-Type")) != null;
+    }
+
+    private void renderMessage(String rawMessage, byte[] bodyBytes, String bodyToString, String contentType,
+                               boolean summarize, Consumer<RenderResult> sink) {
+        String cacheKey = RenderCache.keyFor(rawMessage == null ? "" : rawMessage) + (summarize ? "" : FULL_RENDER_KEY);
+        RenderResult cached = renderCache.get(cacheKey);
+        if (cached != null) {
+            sink.accept(cached);
+            return;
+        }
+
+        List<RenderResult> chunks = new ArrayList<>();
+        renderUncached(rawMessage, bodyBytes, bodyToString, contentType, summarize, chunk -> {
+            sink.accept(chunk);
+            chunks.add(chunk);
+        });
+        if (chunks.size() == 1) {
+            renderCache.put(cacheKey, chunks.get(0));
+            return;
+        }
+        RenderResult.Builder joined = new RenderResult.Builder();
+        chunks.forEach(joined::append);
+        renderCache.put(cacheKey, joined.build());
+    }
+
+    private void renderUncached(String rawMessage, byte[] bodyBytes, String bodyToString, String contentType,
+                                boolean summarize, Consumer<RenderResult> sink) {
+        MessageEnvelope envelope = splitHeadAndBody(rawMessage);
+        DecodedBody decoded = decodeBody(bodyBytes, bodyToString, contentType);
+        String body = decoded.text();
+        RenderResult.RawLayout layout = new RenderResult.RawLayout(envelope.bodyStart(), decoded.charset());
+        RecordSplitter.Format format = RecordSplitter.formatFor(contentType);
+        if (format != null) {
+            // Record streams are emitted head first and then batch by batch, so callers can show
+            // the first records while the rest are still being expanded.
+            RenderResult.Builder head = new RenderResult.Builder(envelope.bodyStart());
+            head.rawLayout(layout);
+            appendHead(envelope, !body.isEmpty(), head);
+            sink.accept(head.build());
+            transformRecords(body, format, sink, envelope.bodyStart());
+            return;
+        }
+
+        // A summary is only a scan, so it is neither worth nor allowed a place in the disk cache. Its
+        // output is small, so it gets a builder of its own rather than one sized for the full body.
+        if (summarize && ArraySummarizer.isCandidate(body) && looksLikeJson(contentType, body)) {
+            RenderResult.Builder summary = new RenderResult.Builder(envelope.bodyStart() + SUMMARY_CAPACITY);
+            summary.rawLayout(layout);
+            appendHead(envelope, true, summary);
+            if (ArraySummarizer.summarize(jsonFactory, body, summary, envelope.bodyStart())) {
+                sink.accept(summary.build());
+                return;
+            }
         }
 
-        MessageEnvelope envelope = splitHeadAndBody(request.toString());
-        String transformedBody = transformBodyForDisplay(
-                request.body().getBytes(),
-                request.bodyToString(),
-                request.headerValue("Content-Type"));
-        return renderEnvelope(envelope, transformedBody);
+        // Head and body are written into one output, sized for a body that grows by half when printed.
+        RenderResult.Builder output = new RenderResult.Builder(envelope.bodyStart() + outputCapacity(body));
+        output.rawLayout(layout);
+        appendHead(envelope, !body.isEmpty(), output);
+        if (diskCache != null && bodyBytes != null && bodyBytes.length >= MIN_DISK_CACHED_BYTES) {
+            output.append(transformBodyThroughDiskCache(bodyBytes, body, contentType), envelope.bodyStart());
+        } else {
+            transformBodyInto(body, contentType, output, envelope.bodyStart());
+        }
+        sink.accept(output.build());
+    }
+
+    // The disk cache holds bodies only, keyed by their bytes; the head is cheap and always rendered fresh.
+    private RenderResult transformBodyThroughDiskCache(byte[] bodyBytes, String body, String contentType) {
+        String key = DiskRenderCache.keyFor(bodyBytes, contentType, RENDER_VERSION);
+        RenderResult cached = diskCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        RenderResult rendered = transformBody(body, contentType);
+        diskCache.put(key, rendered);
+        return rendered;
     }
 
-    String renderResponse(HttpResponse response) {
-        if (response == null) {
-            return "";
+    // Maps a selection in the rendered text back to byte offsets in the raw message, widening it
+    // to whole raw tokens where the rendering re-encoded or expanded them. `layout` is the one the
+    // render that produced `sourceMap` recorded, so nothing about the message is decoded again.
+    ByteRange rawSelection(HttpMessage message, SourceMap sourceMap, RenderResult.RawLayout layout,
+                           int renderedStart, int renderedEnd) {
+        if (message == null || sourceMap == null || layout == null || renderedStart >= renderedEnd) {
+            return null;
+        }
+        int rawStart = sourceMap.rawStartOf(renderedStart);
+        int rawEnd = sourceMap.rawEndOf(renderedEnd);
+        if (rawStart < 0 || rawEnd <= rawStart) {
+            return null;
         }
 
-        MessageEnvelope envelope = splitHeadAndBody(response.toString());
-        String transformedBody = transformBodyForDisplay(
-                response.body().getBytes(),
-                response.bodyToString(),
-                response.headerValue("Content-Type"));
-        return renderEnvelope(envelope, transformedBody);
+        ByteArray body = message.body();
+        int bodyOffset = message.bodyOffset();
+        int limit = bodyOffset + (body == null ? 0 : body.length());
+        return new ByteRange(
+                Math.min(limit, byteOffset(rawStart, layout, body, bodyOffset)),
+                Math.min(limit, byteOffset(rawEnd, layout, body, bodyOffset)));
     }
 
-    String transformBodyForDisplay(byte[] bodyBytes, String bodyToString, String contentType) {
-        String safeBody = decodeBodyByContentType(bodyBytes, bodyToString, contentType);
-        return transformBodyForDisplay(safeBody, contentType);
+    private static int byteOffset(int rawOffset, RenderResult.RawLayout layout, ByteArray body, int bodyOffset) {
+        if (rawOffset < layout.bodyStart() || body == null) {
+            return Math.min(rawOffset, bodyOffset);
+        }
+        return bodyOffset + encodedLength(body, layout.bodyCharset(), rawOffset - layout.bodyStart());
+    }
+
+    // Bytes that the first `chars` chars of `body` were decoded from. No charset encodes a char in
+    // more than four bytes, so only that much of the body is copied and decoded.
+    private static int encodedLength(ByteArray body, Charset charset, int chars) {
+        int length = body.length();
+        if (charset == null || chars <= 0) {
+            return Math.max(0, Math.min(chars, length));
+        }
+        int prefix = (int) Math.min(length, chars * 4L);
+        if (prefix == 0) {
+            return 0;
+        }
+        ByteBuffer in = ByteBuffer.wrap(body.subArray(0, prefix).getBytes());
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        decoder.decode(in, CharBuffer.allocate(chars), true);
+        return in.position();
     }
 
     String transformBodyForDisplay(String body, String contentType) {
+        return transformBody(body, contentType).text();
+    }
+
+    RenderResult transformBody(String body, String contentType) {
         String safeBody = body == null ? "" : body;
-        if (safeBody.isEmpty()) {
-            return safeBody;
+        RenderResult.Builder output = new RenderResult.Builder(outputCapacity(safeBody));
+        transformBodyInto(safeBody, contentType, output, 0);
+        return output.build();
+    }
+
+    // Writes the rendered body to `output`, with source map offsets starting at `rawShift`.
+    private void transformBodyInto(String body, String contentType, RenderResult.Builder output, int rawShift) {
+        if (body.isEmpty()) {
+            return;
+        }
+
+        RecordSplitter.Format format = RecordSplitter.formatFor(contentType);
+        if (format != null) {
+            transformRecords(body, format, output::append, rawShift);
+            return;
+        }
+
+        if (looksLikeJson(contentType, body)) {
+            if (renderJson(body, output, true, rawShift)) {
+                return;
+            }
+            // Escaped as a whole; it can only be traced back as a whole too.
+            int start = output.length();
+            String decoded = decodeChineseUnicodeEscapes(body);
+            if (!decoded.equals(body) && renderJson(decoded, output, false, 0)) {
+                output.mapFrom(start, rawShift, body.length());
+                return;
+            }
+
+            // Not valid JSON, but it still reads like JSON: keep highlighting it as before.
+            decodeInto(body, 0, body.length(), true, output.text(), output.sourceMap(), rawShift);
+            TokenSpans.lexJson(output.text(), start, output.length(), output.spans());
+            return;
+        }
+
+        decodeInto(body, 0, body.length(), true, output.text(), output.sourceMap(), rawShift);
+    }
+
+    private static int outputCapacity(String body) {
+        return body.length() + body.length() / 2;
+    }
+
+    // Maps all of `rendered` to the whole raw text, for output that cannot be traced token by token.
+    private static RenderResult mappedAsWhole(RenderResult rendered, int rawLength) {
+        SourceMap.Builder sourceMap = new SourceMap.Builder();
+        sourceMap.map(0, rendered.text().length(), 0, rawLength);
+        return new RenderResult(rendered.text(), rendered.spans(), sourceMap.build());
+    }
+
+    private void transformRecords(String body, RecordSplitter.Format format, Consumer<RenderResult> sink,
+                                  int rawShift) {
+        RecordSplitter records = new RecordSplitter(body, format);
+        List<String> batch = new ArrayList<>(FIRST_RECORD_BATCH);
+        int[] starts = new int[RECORD_BATCH];
+        int batchLimit = FIRST_RECORD_BATCH;
+        boolean leading = true;
+        while (records.hasNext()) {
+            batch.add(records.next());
+            starts[batch.size() - 1] = rawShift + records.recordStart();
+            if (batch.size() >= batchLimit || !records.hasNext()) {
+                sink.accept(renderRecordBatch(batch, starts, format, leading));
+                batch.clear();
+                batchLimit = RECORD_BATCH;
+                leading = false;
+            }
         }
+    }
+
+    private RenderResult renderRecordBatch(List<String> batch, int[] starts, RecordSplitter.Format format,
+                                           boolean leading) {
+        Stream<String> records = batch.size() >= PARALLEL_RECORD_THRESHOLD ? batch.parallelStream() : batch.stream();
+        List<RenderResult> rendered = records.map(record -> transformRecord(record, format)).toList();
 
-        if (looksLikeJson(contentType, safeBody)) {
-            JsonNode topLevel = parseJson(safeBody);
-            if (topLevel == null) {
-                topLevel = parseJson(decodeChineseUnicodeEscapes(safeBody));
+        RenderResult.Builder output = new RenderResult.Builder();
+        for (int i = 0; i < rendered.size(); i++) {
+            if (i > 0 || !leading) {
+                output.append(format.displaySeparator());
             }
+            output.append(rendered.get(i), starts[i]);
+        }
+        return output.build();
+    }
+
+    private RenderResult transformRecord(String record, RecordSplitter.Format format) {
+        if (format != RecordSplitter.Format.EVENT_STREAM) {
+            return transformBody(record, null);
+        }
 
-            if (topLevel != null) {
-                try {
-                    JsonNode normalized = normalize(topLevel);
-                    return prettyWriter.writeValueAsString(normalized);
-                } catch (JsonProcessingException ignored) {
-                    return decodeChineseUnicodeEscapes(safeBody);
+        // Keep event/id/retry/comment lines as they are and expand the joined data payload. The
+        // payload is joined from several lines, so the event maps back as a whole.
+        RenderResult.Builder output = new RenderResult.Builder();
+        StringBuilder data = null;
+        for (String line : record.split("\r?\n")) {
+            if (line.startsWith("data:")) {
+                String value = line.startsWith("data: ") ? line.substring(6) : line.substring(5);
+                if (data == null) {
+                    data = new StringBuilder(value);
+                } else {
+                    data.append('\n').append(value);
                 }
+                continue;
             }
+            if (output.length() > 0) {
+                output.append('\n');
+            }
+            decodeInto(line, 0, line.length(), false, output.text(), null, 0);
         }
 
-        return decodeChineseUnicodeEscapes(safeBody);
+        if (data != null) {
+            if (output.length() > 0) {
+                output.append('\n');
+            }
+            output.append("data: ").append(transformBody(data.toString(), null));
+        }
+        return mappedAsWhole(output.build(), record.length());
     }
 
+    // Returns `input` itself when there is nothing to decode, so unchanged strings cost no copy.
     static String decodeChineseUnicodeEscapes(String input) {
-        if (input == null || input.isEmpty()) {
+        if (input == null || input.indexOf('\\') < 0) {
             return input;
         }
 
-        StringBuilder output = new StringBuilder(input.length());
-        int index = 0;
-        while (index < input.length()) {
-            char current = input.charAt(index);
-            if (current != '\\') {
-                output.append(current);
-                index++;
+        StringBuilder scratch = DECODE_SCRATCH.get();
+        scratch.setLength(0);
+        boolean changed = decodeInto(input, 0, input.length(), false, scratch, null, 0);
+        String decoded = changed ? scratch.toString() : input;
+        if (scratch.capacity() > MAX_RETAINED_SCRATCH_CHARS) {
+            DECODE_SCRATCH.remove();
+        }
+        return decoded;
+    }
+
+    // Appends input[from, to) to `output` with Chinese escapes decoded and, with `normalizeLines`,
+    // CRLF and lone CR turned into '\n'. With a `sourceMap`, each copied stretch and each decoded
+    // escape is mapped back to its offset in `input` plus `rawShift`. Returns whether anything was
+    // decoded or normalized.
+    private static boolean decodeInto(String input, int from, int to, boolean normalizeLines, StringBuilder output,
+                                      SourceMap.Builder sourceMap, int rawShift) {
+        boolean changed = false;
+        int index = from;
+        while (index < to) {
+            int plainEnd = index;
+            while (plainEnd < to) {
+                char ch = input.charAt(plainEnd);
+                if (ch == '\\' || (ch == '\r' && normalizeLines)) {
+                    break;
+                }
+                plainEnd++;
+            }
+            if (plainEnd > index) {
+                copyMapped(input, index, plainEnd, output, sourceMap, rawShift);
+                index = plainEnd;
+                continue;
+            }
+
+            int renderedStart = output.length();
+            if (input.charAt(index) == '\r') {
+                int consumed = index + 1 < to && input.charAt(index + 1) == '\n' ? 2 : 1;
+                output.append('\n');
+                if (sourceMap != null) {
+                    sourceMap.map(renderedStart, 1, rawShift + index, consumed);
+                }
+                index += consumed;
+                changed = true;
                 continue;
             }
 
             int slashStart = index;
-            while (index < input.length() && input.charAt(index) == '\\') {
+            while (index < to && input.charAt(index) == '\\') {
                 index++;
             }
             int slashCount = index - slashStart;
@@ -123,17 +459,28 @@ final class MessageTransformer {
                 if (isChineseCodePoint(codePoint)) {
                     appendBackslashes(output, slashCount / 2);
                     output.appendCodePoint(codePoint);
+                    if (sourceMap != null) {
+                        sourceMap.map(renderedStart, output.length() - renderedStart,
+                                rawShift + slashStart, index + consumed - slashStart);
+                    }
+                    changed = true;
                 } else {
-                    appendBackslashes(output, slashCount);
-                    output.append(input, index, index + consumed);
+                    copyMapped(input, slashStart, index + consumed, output, sourceMap, rawShift);
                 }
                 index += consumed;
             } else {
-                appendBackslashes(output, slashCount);
+                copyMapped(input, slashStart, index, output, sourceMap, rawShift);
             }
         }
+        return changed;
+    }
 
-        return output.toString();
+    private static void copyMapped(String input, int start, int end, StringBuilder output,
+                                   SourceMap.Builder sourceMap, int rawShift) {
+        if (sourceMap != null) {
+            sourceMap.map(output.length(), end - start, rawShift + start, end - start);
+        }
+        output.append(input, start, end);
     }
 
     private static void appendBackslashes(StringBuilder output, int count) {
@@ -146,38 +493,42 @@ final class MessageTransformer {
         return pos >= 0 && pos < input.length() && input.charAt(pos) == 'u' && isHexSequence(input, pos + 1);
     }
 
-    private String renderEnvelope(MessageEnvelope envelope, String transformedBody) {
-        String decodedHead = decodeChineseUnicodeEscapes(envelope.head());
-        if (!envelope.hasSeparator()) {
-            if (transformedBody == null || transformedBody.isEmpty()) {
-                return decodedHead;
-            }
-            return decodedHead + CRLF_CRLF + transformedBody;
+    private static void appendHead(MessageEnvelope envelope, boolean hasBody, RenderResult.Builder output) {
+        // Line separators are normalized, so the head always ends in "\n\n" before the body.
+        decodeInto(envelope.raw(), 0, envelope.headEnd(), true, output.text(), output.sourceMap(), 0);
+        if (envelope.hasSeparator() || hasBody) {
+            int start = output.length();
+            output.append(LF_LF).mapFrom(start, envelope.headEnd(), envelope.separator().length());
         }
-        return decodedHead + envelope.separator() + (transformedBody == null ? "" : transformedBody);
     }
 
     private MessageEnvelope splitHeadAndBody(String rawMessage) {
         String safeRaw = rawMessage == null ? "" : rawMessage;
         int crlfIndex = safeRaw.indexOf(CRLF_CRLF);
         if (crlfIndex >= 0) {
-            return new MessageEnvelope(safeRaw.substring(0, crlfIndex), CRLF_CRLF);
+            return new MessageEnvelope(safeRaw, crlfIndex, CRLF_CRLF);
         }
         int lfIndex = safeRaw.indexOf(LF_LF);
         if (lfIndex >= 0) {
-            return new MessageEnvelope(safeRaw.substring(0, lfIndex), LF_LF);
+            return new MessageEnvelope(safeRaw, lfIndex, LF_LF);
         }
-        return new MessageEnvelope(safeRaw, "");
+        return new MessageEnvelope(safeRaw, safeRaw.length(), "");
     }
 
     String decodeBodyByContentType(byte[] bodyBytes, String bodyToString, String contentType) {
-        String fallback = bodyToString == null ? "" : bodyToString;
+        return decodeBody(bodyBytes, bodyToString, contentType).text();
+    }
+
+    private DecodedBody decodeBody(byte[] bodyBytes, String bodyToString, String contentType) {
+        String fallbackText = bodyToString == null ? "" : bodyToString;
+        DecodedBody fallback = new DecodedBody(fallbackText, null);
         if (bodyBytes == null || bodyBytes.length == 0) {
             return fallback;
         }
 
+        boolean recordStream = RecordSplitter.formatFor(contentType) != null;
         Charset charset = resolveCharset(contentType);
-        if (charset == null && isJsonContentType(contentType)) {
+        if (charset == null && (recordStream || isJsonContentType(contentType))) {
             charset = StandardCharsets.UTF_8;
         }
         if (charset == null) {
@@ -190,41 +541,51 @@ final class MessageTransformer {
         } catch (RuntimeException ignored) {
             return fallback;
         }
+        DecodedBody decoded = new DecodedBody(decodedCandidate, charset);
 
-        if (!isJsonContentType(contentType)) {
-            return decodedCandidate;
+        if (recordStream || !isJsonContentType(contentType)) {
+            return decoded;
         }
 
-        JsonNode fallbackJson = parseJson(fallback);
-        JsonNode decodedJson = parseJson(decodedCandidate);
+        boolean fallbackJson = isJson(fallbackText);
+        boolean decodedJson = isJson(decodedCandidate);
 
-        if (decodedJson != null && fallbackJson == null) {
-            return decodedCandidate;
-        }
-        if (decodedJson == null && fallbackJson != null) {
-            return fallback;
+        if (decodedJson && !fallbackJson) {
+            return decoded;
         }
-        if (decodedJson == null) {
+        if (!decodedJson) {
             return fallback;
         }
 
-        return shouldPreferDecodedText(fallback, decodedCandidate) ? decodedCandidate : fallback;
+        return shouldPreferDecodedText(fallbackText, decodedCandidate) ? decoded : fallback;
     }
 
     private boolean looksLikeJson(String contentType, String body) {
-        if (isJsonContentType(contentType)) {
-            return true;
-        }
+        return isJsonContentType(contentType) || looksLikeJsonContainer(body);
+    }
 
-        String trimmed = body.trim();
-        if (trimmed.isEmpty()) {
+    // Whether `text`, ignoring surrounding whitespace, starts and ends like an object or an array.
+    static boolean looksLikeJsonContainer(CharSequence text) {
+        if (text == null) {
+            return false;
+        }
+        int start = 0;
+        int end = text.length() - 1;
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end) <= ' ') {
+            end--;
+        }
+        if (start >= end) {
             return false;
         }
-        return (trimmed.charAt(0) == '{' && trimmed.charAt(trimmed.length() - 1) == '}')
-                || (trimmed.charAt(0) == '[' && trimmed.charAt(trimmed.length() - 1) == ']');
+        char first = text.charAt(start);
+        char last = text.charAt(end);
+        return (first == '{' && last == '}') || (first == '[' && last == ']');
     }
 
-    private boolean isJsonContentType(String contentType) {
+    static boolean isJsonContentType(String contentType) {
         if (contentType == null) {
             return false;
         }
@@ -292,59 +653,173 @@ final class MessageTransformer {
         return false;
     }
 
-    private JsonNode normalize(JsonNode node) {
-        if (node.isObject()) {
-            ObjectNode result = objectMapper.createObjectNode();
-            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
-            while (fields.hasNext()) {
-                Map.Entry<String, JsonNode> entry = fields.next();
-                result.set(entry.getKey(), normalize(entry.getValue()));
+    // Pretty-prints the object or array in `source` into `output`, straight off the parser. With
+    // `mapped`, keys and scalars are mapped back to their offsets in `source` plus `rawShift`.
+    // Returns false, with `output` left as it was, when `source` is not a JSON object or array.
+    private boolean renderJson(String source, RenderResult.Builder output, boolean mapped, int rawShift) {
+        if (!looksLikeJsonContainer(source)) {
+            return false;
+        }
+        RenderResult.Mark mark = output.mark();
+        try {
+            if (source.length() >= (long) parallelThreshold * MIN_PARALLEL_MEMBER_CHARS
+                    && renderJsonInParallel(source, output, mapped, rawShift)) {
+                return true;
+            }
+            try (JsonParser parser = jsonFactory.createParser(source)) {
+                parser.nextToken();
+                new SpanJsonWriter(output, jsonFactory, mapped ? source : null, rawShift).writeValue(parser, 0);
             }
-            return result;
+            return true;
+        } catch (IOException e) {
+            output.reset(mark);
+            return false;
+        }
+    }
+
+    // Splits a large top-level container into chunks of members that are parsed and pretty-printed
+    // at depth 1 on the common ForkJoinPool, then joined in order, so the result is identical to a
+    // sequential print. A first pass only finds where each member starts; every chunk then parses
+    // its own slice of `source`, wrapped back into a container. Returns false so the caller can
+    // fall back.
+    private boolean renderJsonInParallel(String source, RenderResult.Builder output, boolean mapped, int rawShift) {
+        MemberBoundaries members = findMembers(source);
+        if (members == null || members.count() < parallelThreshold) {
+            return false;
         }
 
-        if (node.isArray()) {
-            ArrayNode result = objectMapper.createArrayNode();
-            for (JsonNode child : node) {
-                result.add(normalize(child));
-            }
-            return result;
+        int chunkSize = Math.max(MIN_PARALLEL_CHUNK, members.count() / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        List<Callable<RenderResult>> chunks = new ArrayList<>();
+        for (int start = 0; start < members.count(); start += chunkSize) {
+            int from = start;
+            int to = Math.min(members.count(), start + chunkSize);
+            chunks.add(() -> printChunk(source, members, from, to, mapped, rawShift));
         }
 
-        if (node.isTextual()) {
-            String text = node.asText();
-            String decoded = decodeChineseUnicodeEscapes(text);
-            JsonNode nested = parseJson(decoded);
-            if (nested != null) {
-                return normalize(nested);
-            }
-            if (!decoded.equals(text)) {
-                return TextNode.valueOf(decoded);
+        List<RenderResult> printed = new ArrayList<>(chunks.size());
+        try {
+            for (Future<RenderResult> chunk : ForkJoinPool.commonPool().invokeAll(chunks)) {
+                printed.add(chunk.get());
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
         }
 
-        return node;
+        output.append(members.array() ? '[' : '{');
+        printed.forEach(output::append);
+        output.append('\n').append(members.array() ? ']' : '}');
+        return true;
     }
 
-    private JsonNode parseJson(String candidate) {
-        if (candidate == null) {
-            return null;
+    private RenderResult printChunk(String source, MemberBoundaries members, int from, int to, boolean mapped,
+                                    int rawShift) throws IOException {
+        int sliceStart = members.start(from);
+        int sliceEnd = members.end(to);
+        char[] slice = new char[sliceEnd - sliceStart + 2];
+        slice[0] = members.array() ? '[' : '{';
+        source.getChars(sliceStart, sliceEnd, slice, 1);
+        slice[slice.length - 1] = members.array() ? ']' : '}';
+
+        RenderResult.Builder output = new RenderResult.Builder(outputCapacity(source) / members.count() * (to - from));
+        SpanJsonWriter writer = new SpanJsonWriter(output, jsonFactory, mapped ? source : null, rawShift);
+        writer.seek(sliceStart);
+        try (JsonParser parser = jsonFactory.createParser(slice)) {
+            parser.nextToken();
+            boolean first = from == 0;
+            for (JsonToken token = parser.nextToken(); !token.isStructEnd(); token = parser.nextToken()) {
+                if (members.array()) {
+                    writer.writeArrayElement(parser, first, 1);
+                } else {
+                    String name = parser.currentName();
+                    parser.nextToken();
+                    writer.writeObjectField(name, parser, first, 1);
+                }
+                first = false;
+            }
         }
+        return output.build();
+    }
 
-        String trimmed = candidate.trim();
-        if (trimmed.isEmpty()) {
-            return null;
+    // One pass over the chars of `source` that records where each top-level member starts (its key,
+    // for objects) and where the container closes, without tokenizing the members themselves; the
+    // chunk parsers validate those. Returns null as soon as the members left can no longer reach
+    // `parallelThreshold`, so a body like {"data":[...]} costs a char scan rather than a full parse.
+    private MemberBoundaries findMembers(String source) {
+        int length = source.length();
+        int i = 0;
+        while (i < length && source.charAt(i) <= ' ') {
+            i++;
+        }
+        boolean array = source.charAt(i) == '[';
+        int[] starts = new int[1_024];
+        int count = 0;
+        int depth = 0;
+        // Past this offset there is no room left for the members still needed, at two chars each.
+        int giveUp = length - parallelThreshold * 2;
+        boolean expectMember = true;
+        for (i++; i < length; i++) {
+            char ch = source.charAt(i);
+            if (ch <= ' ') {
+                continue;
+            }
+            if (depth == 0 && expectMember) {
+                if (ch == (array ? ']' : '}') && count == 0) {
+                    return null;
+                }
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i;
+                giveUp = length - (parallelThreshold - count) * 2;
+                expectMember = false;
+            }
+            if (i > giveUp && count < parallelThreshold) {
+                return null;
+            }
+            switch (ch) {
+                case '"' -> i = stringEnd(source, i);
+                case '[', '{' -> depth++;
+                case ']', '}' -> {
+                    if (depth == 0) {
+                        return ch == (array ? ']' : '}') ? new MemberBoundaries(array, starts, count, i, source) : null;
+                    }
+                    depth--;
+                }
+                case ',' -> expectMember = depth == 0;
+                default -> {
+                }
+            }
         }
-        boolean isObject = trimmed.charAt(0) == '{' && trimmed.charAt(trimmed.length() - 1) == '}';
-        boolean isArray = trimmed.charAt(0) == '[' && trimmed.charAt(trimmed.length() - 1) == ']';
-        if (!isObject && !isArray) {
-            return null;
+        return null;
+    }
+
+    // Offset of the quote that closes the string opened at `quote`, or the end of `source`.
+    private static int stringEnd(String source, int quote) {
+        for (int i = quote + 1; i < source.length(); i++) {
+            char ch = source.charAt(i);
+            if (ch == '\\') {
+                i++;
+            } else if (ch == '"') {
+                return i;
+            }
         }
+        return source.length();
+    }
 
-        try {
-            return objectMapper.readTree(trimmed);
-        } catch (JsonProcessingException ignored) {
-            return null;
+    // Whether `candidate` holds a complete JSON object or array.
+    private boolean isJson(String candidate) {
+        if (!looksLikeJsonContainer(candidate)) {
+            return false;
+        }
+        try (JsonParser parser = jsonFactory.createParser(candidate)) {
+            parser.nextToken();
+            parser.skipChildren();
+            return true;
+        } catch (IOException e) {
+            return false;
         }
     }
 
@@ -422,16 +897,41 @@ final class MessageTransformer {
         return -1;
     }
 
-    private static DefaultPrettyPrinter prettyPrinter() {
-        DefaultIndenter indenter = DefaultIndenter.SYSTEM_LINEFEED_INSTANCE;
-        return new DefaultPrettyPrinter()
-                .withObjectIndenter(indenter)
-                .withArrayIndenter(indenter);
+    record ByteRange(int start, int end) {
     }
 
-    private record MessageEnvelope(String head, String separator) {
+    // The raw message with its head ending at `headEnd`, followed by `separator`.
+    private record MessageEnvelope(String raw, int headEnd, String separator) {
         boolean hasSeparator() {
-            return separator != null && !separator.isEmpty();
+            return !separator.isEmpty();
+        }
+
+        int bodyStart() {
+            return headEnd + separator.length();
+        }
+    }
+
+    // Top-level members of a container in `source`: member i spans from start(i) up to end(i + 1).
+    private record MemberBoundaries(boolean array, int[] starts, int count, int close, String source) {
+        int start(int member) {
+            return starts[member];
+        }
+
+        // Where the slice of members before `member` ends: ahead of the comma before it, or of the
+        // closing bracket after the last member.
+        int end(int member) {
+            int end = member < count ? starts[member] : close;
+            while (end > 0 && source.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (member < count && source.charAt(end - 1) == ',') {
+                end--;
+            }
+            return end;
         }
     }
+
+    // A body as text plus the charset it was decoded with; null means bodyToString, one char per byte.
+    private record DecodedBody(String text, Charset charset) {
+    }
 }
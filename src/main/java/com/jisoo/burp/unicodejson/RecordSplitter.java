@@ -0,0 +1,160 @@
+package com.jisoo.burp.unicodejson;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+final class RecordSplitter implements Iterator<String> {
+    private static final char RECORD_SEPARATOR = 0x1E;
+
+    enum Format {
+        NDJSON("\n"),
+        JSON_SEQ("\n"),
+        EVENT_STREAM("\n\n");
+
+        private final String displaySeparator;
+
+        Format(String displaySeparator) {
+            this.displaySeparator = displaySeparator;
+        }
+
+        String displaySeparator() {
+            return displaySeparator;
+        }
+    }
+
+    private final String body;
+    private final Format format;
+    private int position;
+    private String pending;
+    private int pendingStart;
+    private int recordStart;
+
+    RecordSplitter(String body, Format format) {
+        this.body = body == null ? "" : body;
+        // Some servers label plain NDJSON as json-seq; without any RS there is nothing to split on.
+        this.format = format == Format.JSON_SEQ && this.body.indexOf(RECORD_SEPARATOR) < 0 ? Format.NDJSON : format;
+    }
+
+    static Format formatFor(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String ctLower = contentType.toLowerCase(Locale.ROOT);
+        if (ctLower.contains("application/x-ndjson")
+                || ctLower.contains("application/ndjson")
+                || ctLower.contains("application/jsonl")
+                || ctLower.contains("application/x-jsonlines")) {
+            return Format.NDJSON;
+        }
+        if (ctLower.contains("application/json-seq")) {
+            return Format.JSON_SEQ;
+        }
+        if (ctLower.contains("text/event-stream")) {
+            return Format.EVENT_STREAM;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null) {
+            pending = readNext();
+        }
+        return pending != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String record = pending;
+        pending = null;
+        recordStart = pendingStart;
+        return record;
+    }
+
+    // Offset in the body of the record last returned by next().
+    int recordStart() {
+        return recordStart;
+    }
+
+    private String readNext() {
+        return switch (format) {
+            case NDJSON -> nextLine();
+            case JSON_SEQ -> nextSequenceRecord();
+            case EVENT_STREAM -> nextEvent();
+        };
+    }
+
+    private String nextLine() {
+        while (position < body.length()) {
+            int lineEnd = lineEnd(position);
+            String line = body.substring(position, stripCarriageReturn(position, lineEnd));
+            pendingStart = position;
+            position = lineEnd + 1;
+            if (!line.isBlank()) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private String nextSequenceRecord() {
+        while (position < body.length()) {
+            int end = body.indexOf(RECORD_SEPARATOR, position);
+            if (end < 0) {
+                end = body.length();
+            }
+            int start = position;
+            while (start < end && Character.isWhitespace(body.charAt(start))) {
+                start++;
+            }
+            String record = body.substring(start, end).strip();
+            pendingStart = start;
+            position = end + 1;
+            if (!record.isEmpty()) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    private String nextEvent() {
+        // Skip blank lines between events, then collect lines up to the next blank line.
+        while (position < body.length()) {
+            int lineEnd = lineEnd(position);
+            if (stripCarriageReturn(position, lineEnd) > position) {
+                break;
+            }
+            position = lineEnd + 1;
+        }
+        if (position >= body.length()) {
+            return null;
+        }
+
+        int eventStart = position;
+        int eventEnd = position;
+        pendingStart = eventStart;
+        while (position < body.length()) {
+            int lineEnd = lineEnd(position);
+            int contentEnd = stripCarriageReturn(position, lineEnd);
+            if (contentEnd == position) {
+                break;
+            }
+            eventEnd = contentEnd;
+            position = lineEnd + 1;
+        }
+        return body.substring(eventStart, eventEnd);
+    }
+
+    private int lineEnd(int from) {
+        int newline = body.indexOf('\n', from);
+        return newline < 0 ? body.length() : newline;
+    }
+
+    private int stripCarriageReturn(int lineStart, int lineEnd) {
+        return lineEnd > lineStart && body.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+    }
+}
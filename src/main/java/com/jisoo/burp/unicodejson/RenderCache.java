@@ -0,0 +1,77 @@
+package com.jisoo.burp.unicodejson;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class RenderCache {
+    private static final int DIGEST_CHUNK_CHARS = 4096;
+
+    private final long maxChars;
+    private final LinkedHashMap<String, RenderResult> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalChars;
+
+    RenderCache(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    synchronized RenderResult get(String key) {
+        return entries.get(key);
+    }
+
+    // A single render larger than a quarter of the budget would evict everything else.
+    long maxEntryWeight() {
+        return maxChars / 4;
+    }
+
+    synchronized void put(String key, RenderResult rendered) {
+        long weight = weightOf(rendered);
+        if (weight > maxEntryWeight()) {
+            return;
+        }
+
+        RenderResult previous = entries.put(key, rendered);
+        if (previous != null) {
+            totalChars -= weightOf(previous);
+        }
+        totalChars += weight;
+
+        Iterator<Map.Entry<String, RenderResult>> eldest = entries.entrySet().iterator();
+        while (totalChars > maxChars && eldest.hasNext()) {
+            totalChars -= weightOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    // A span costs nine bytes, roughly four and a half chars; the source map its encoded size.
+    private static long weightOf(RenderResult rendered) {
+        return rendered.text().length() + rendered.spans().size() * 9L / 2 + rendered.sourceMap().byteSize() / 2;
+    }
+
+    static String keyFor(String rawMessage) {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[DIGEST_CHUNK_CHARS * 2];
+        for (int start = 0; start < rawMessage.length(); start += DIGEST_CHUNK_CHARS) {
+            int end = Math.min(rawMessage.length(), start + DIGEST_CHUNK_CHARS);
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                char ch = rawMessage.charAt(i);
+                buffer[length++] = (byte) (ch >>> 8);
+                buffer[length++] = (byte) ch;
+            }
+            digest.update(buffer, 0, length);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
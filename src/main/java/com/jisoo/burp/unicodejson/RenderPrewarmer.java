@@ -0,0 +1,137 @@
+package com.jisoo.burp.unicodejson;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.handler.HttpHandler;
+import burp.api.montoya.http.handler.HttpRequestToBeSent;
+import burp.api.montoya.http.handler.HttpResponseReceived;
+import burp.api.montoya.http.handler.RequestToBeSentAction;
+import burp.api.montoya.http.handler.ResponseReceivedAction;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+import java.util.ArrayDeque;
+
+// Renders JSON responses from the Proxy and Repeater into the transformer's cache before anyone
+// opens them. Only the dispatching worker runs at low priority: large containers and record
+// streams it renders still fan out to the common fork-join pool at normal priority.
+final class RenderPrewarmer implements HttpHandler {
+    // Queued responses hold their bodies, so the queue is bounded by their total size.
+    private static final long MAX_QUEUED_BYTES = 32L * 1024 * 1024;
+    // Small bodies render instantly on demand; bodies above the transformer's cache limit would be
+    // rendered only to be dropped.
+    private static final int MIN_BODY_BYTES = 4 * 1024;
+    private static final int SNIFF_BYTES = 64;
+
+    private final MessageTransformer transformer;
+    private final long maxBodyBytes;
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private final Thread worker;
+    private long queuedBytes;
+    private volatile boolean running = true;
+
+    RenderPrewarmer(MessageTransformer transformer) {
+        this.transformer = transformer;
+        this.maxBodyBytes = transformer.maxCachedBodyBytes();
+        this.worker = new Thread(this::drainQueue, "unicode-json-prewarm");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    @Override
+    public RequestToBeSentAction handleHttpRequestToBeSent(HttpRequestToBeSent requestToBeSent) {
+        return RequestToBeSentAction.continueWith(requestToBeSent);
+    }
+
+    @Override
+    public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived responseReceived) {
+        if (running && responseReceived.toolSource().isFromTool(ToolType.PROXY, ToolType.REPEATER)) {
+            int length = prewarmedLength(responseReceived);
+            if (length > 0) {
+                enqueue(new Pending(responseReceived, length));
+            }
+        }
+        return ResponseReceivedAction.continueWith(responseReceived);
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            running = false;
+            queue.clear();
+            queuedBytes = 0;
+            notifyAll();
+        }
+        worker.interrupt();
+    }
+
+    private synchronized void enqueue(Pending pending) {
+        // Drop the oldest pending renders rather than ever blocking the traffic thread.
+        while (!queue.isEmpty() && queuedBytes + pending.length() > MAX_QUEUED_BYTES) {
+            queuedBytes -= queue.poll().length();
+        }
+        queue.add(pending);
+        queuedBytes += pending.length();
+        notifyAll();
+    }
+
+    // Waits for the next queued response; null once shut down.
+    private synchronized HttpResponse take() throws InterruptedException {
+        while (running && queue.isEmpty()) {
+            wait();
+        }
+        if (!running) {
+            return null;
+        }
+        Pending pending = queue.poll();
+        queuedBytes -= pending.length();
+        return pending.response();
+    }
+
+    private void drainQueue() {
+        while (running) {
+            HttpResponse response;
+            try {
+                response = take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (response == null) {
+                return;
+            }
+
+            try {
+                transformer.renderResponse(response);
+            } catch (RuntimeException ignored) {
+                // Pre-warming is best effort; the editor renders again on demand.
+            }
+        }
+    }
+
+    // The body length of a response worth rendering ahead of time, or 0 for one that is not.
+    private int prewarmedLength(HttpResponse response) {
+        ByteArray body = response.body();
+        int length = body == null ? 0 : body.length();
+        if (length < MIN_BODY_BYTES || length > maxBodyBytes) {
+            return 0;
+        }
+
+        String contentType = response.headerValue("Content-Type");
+        if (MessageTransformer.isJsonContentType(contentType) || RecordSplitter.formatFor(contentType) != null) {
+            return length;
+        }
+
+        int limit = Math.min(length, SNIFF_BYTES);
+        for (int i = 0; i < limit; i++) {
+            byte b = body.getByte(i);
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                continue;
+            }
+            return b == '{' || b == '[' ? length : 0;
+        }
+        return 0;
+    }
+
+    private record Pending(HttpResponse response, int length) {
+    }
+}
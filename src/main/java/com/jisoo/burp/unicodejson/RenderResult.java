@@ -0,0 +1,161 @@
+package com.jisoo.burp.unicodejson;
+
+import java.nio.charset.Charset;
+
+// Display text plus the highlight spans and source map recorded while it was produced. Text always
+// uses '\n' line separators so span offsets line up with what the viewer shows.
+final class RenderResult {
+    private static final TokenSpans NO_SPANS = new TokenSpans();
+
+    private final String text;
+    private final TokenSpans spans;
+    private final SourceMap sourceMap;
+    private final boolean summarized;
+    private final RawLayout rawLayout;
+
+    RenderResult(String text, TokenSpans spans) {
+        this(text, spans, SourceMap.EMPTY);
+    }
+
+    RenderResult(String text, TokenSpans spans, SourceMap sourceMap) {
+        this(text, spans, sourceMap, false);
+    }
+
+    RenderResult(String text, TokenSpans spans, SourceMap sourceMap, boolean summarized) {
+        this(text, spans, sourceMap, summarized, null);
+    }
+
+    RenderResult(String text, TokenSpans spans, SourceMap sourceMap, boolean summarized, RawLayout rawLayout) {
+        this.text = text;
+        this.spans = spans;
+        this.sourceMap = sourceMap;
+        this.summarized = summarized;
+        this.rawLayout = rawLayout;
+    }
+
+    static RenderResult plain(String text) {
+        return new RenderResult(text == null ? "" : text, NO_SPANS);
+    }
+
+    String text() {
+        return text;
+    }
+
+    TokenSpans spans() {
+        return spans;
+    }
+
+    SourceMap sourceMap() {
+        return sourceMap;
+    }
+
+    // Whether part of the text stands in for a body that a full render would show in its entirety.
+    boolean summarized() {
+        return summarized;
+    }
+
+    // How the raw message behind the source map was read, or null for a render of a bare body.
+    RawLayout rawLayout() {
+        return rawLayout;
+    }
+
+    static final class Builder {
+        private final StringBuilder text;
+        private final TokenSpans spans = new TokenSpans();
+        private final SourceMap.Builder sourceMap = new SourceMap.Builder();
+        private boolean summarized;
+        private RawLayout rawLayout;
+
+        Builder() {
+            this(16);
+        }
+
+        Builder(int capacity) {
+            this.text = new StringBuilder(capacity);
+        }
+
+        StringBuilder text() {
+            return text;
+        }
+
+        TokenSpans spans() {
+            return spans;
+        }
+
+        SourceMap.Builder sourceMap() {
+            return sourceMap;
+        }
+
+        int length() {
+            return text.length();
+        }
+
+        Builder append(char ch) {
+            text.append(ch);
+            return this;
+        }
+
+        Builder append(CharSequence chars) {
+            text.append(chars);
+            return this;
+        }
+
+        Builder append(RenderResult result) {
+            return append(result, 0);
+        }
+
+        // Appends `result` whose source map is relative to raw offset `rawShift`.
+        Builder append(RenderResult result, int rawShift) {
+            spans.addAll(result.spans(), text.length());
+            sourceMap.append(result.sourceMap(), text.length(), rawShift);
+            text.append(result.text());
+            summarized |= result.summarized();
+            if (rawLayout == null) {
+                rawLayout = result.rawLayout();
+            }
+            return this;
+        }
+
+        void markSummarized() {
+            summarized = true;
+        }
+
+        void rawLayout(RawLayout layout) {
+            rawLayout = layout;
+        }
+
+        Mark mark() {
+            return new Mark(text.length(), spans.size(), sourceMap.mark());
+        }
+
+        // Drops everything written since `mark`, e.g. a nested document that failed to parse halfway.
+        void reset(Mark mark) {
+            text.setLength(mark.length());
+            spans.truncate(mark.spans());
+            sourceMap.reset(mark.sourceMapRuns());
+        }
+
+        // Records a span from `start` up to the current end of the text.
+        void spanFrom(int start, byte type) {
+            spans.add(start, text.length() - start, type);
+        }
+
+        // Maps the text from `start` up to the current end back to `rawLength` raw chars at `rawStart`.
+        void mapFrom(int start, int rawStart, int rawLength) {
+            sourceMap.map(start, text.length() - start, rawStart, rawLength);
+        }
+
+        RenderResult build() {
+            return new RenderResult(text.toString(), spans, sourceMap.build(), summarized, rawLayout);
+        }
+    }
+
+    record Mark(int length, int spans, int sourceMapRuns) {
+    }
+
+    // Source map offsets are chars of the raw message: head chars up to `bodyStart` stand for one
+    // byte each, and body chars were decoded with `bodyCharset`, or one per byte when it is null.
+    // Kept with the render so a selection can be mapped to bytes without deciding it again.
+    record RawLayout(int bodyStart, Charset bodyCharset) {
+    }
+}
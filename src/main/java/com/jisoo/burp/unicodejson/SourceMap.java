@@ -0,0 +1,355 @@
+package com.jisoo.burp.unicodejson;
+
+import java.util.Arrays;
+
+// Maps rendered offsets back to offsets in the raw message text as run-length entries. A run whose
+// rendered and raw lengths match maps char for char; any other run (a decoded escape, an expanded
+// nested document, a re-escaped string) maps as a whole to its raw range. Offsets between runs
+// (indentation, punctuation added by the printer) snap to the neighbouring run, so a selection
+// always widens to whole raw tokens.
+//
+// Runs are stored as varint deltas from the end of the previous run: the rendered gap (with a flag
+// for runs that are not char for char), the raw gap, the rendered length and, for flagged runs
+// only, the raw length. A printed token usually costs three bytes. Every CHECKPOINT_RUNS runs a
+// checkpoint records where decoding can start, so a lookup decodes at most that many runs.
+final class SourceMap {
+    static final SourceMap EMPTY = new Builder().build();
+    private static final int CHECKPOINT_RUNS = 32;
+    // Four varints of at most ten bytes each.
+    private static final int MAX_RUN_BYTES = 40;
+
+    private final byte[] data;
+    private final int size;
+    // Per checkpoint: the rendered start of its first run, the rendered and raw ends of the run
+    // before it, and the offset of its first run in `data`.
+    private final int[] checkpointStarts;
+    private final int[] checkpointRenderedEnds;
+    private final int[] checkpointRawEnds;
+    private final int[] checkpointOffsets;
+
+    private SourceMap(byte[] data, int size, int[] checkpointStarts, int[] checkpointRenderedEnds,
+                      int[] checkpointRawEnds, int[] checkpointOffsets) {
+        this.data = data;
+        this.size = size;
+        this.checkpointStarts = checkpointStarts;
+        this.checkpointRenderedEnds = checkpointRenderedEnds;
+        this.checkpointRawEnds = checkpointRawEnds;
+        this.checkpointOffsets = checkpointOffsets;
+    }
+
+    // Rebuilds a map from the bytes toBytes() returned for it.
+    static SourceMap fromBytes(byte[] data, int size) {
+        Builder builder = new Builder();
+        new SourceMap(data, size, new int[]{0}, new int[]{0}, new int[]{0}, new int[]{0}).appendTo(builder, 0, 0);
+        return builder.build();
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Encoded runs, for storing the map; checkpoints are rebuilt by fromBytes.
+    byte[] toBytes() {
+        return data.clone();
+    }
+
+    int encodedLength() {
+        return data.length;
+    }
+
+    // Approximate heap footprint, for cache weighting.
+    long byteSize() {
+        return data.length + checkpointStarts.length * 16L;
+    }
+
+    // Raw offset where a selection starting at `renderedOffset` begins, or -1 if nothing follows it.
+    int rawStartOf(int renderedOffset) {
+        Reader run = seek(renderedOffset);
+        if (run == null) {
+            run = reader(0);
+            return run.next() ? run.rawStart : -1;
+        }
+        if (renderedOffset < run.renderedStart + run.renderedLength) {
+            return run.isLinear() ? run.rawStart + (renderedOffset - run.renderedStart) : run.rawStart;
+        }
+        return run.next() ? run.rawStart : -1;
+    }
+
+    // Raw offset where a selection ending at `renderedOffset` (exclusive) ends, or -1 if nothing precedes it.
+    int rawEndOf(int renderedOffset) {
+        Reader run = seek(renderedOffset - 1);
+        if (run == null) {
+            return -1;
+        }
+        int renderedEnd = run.renderedStart + run.renderedLength;
+        if (renderedOffset < renderedEnd && run.isLinear()) {
+            return run.rawStart + (renderedOffset - run.renderedStart);
+        }
+        return run.rawStart + run.rawLength;
+    }
+
+    private void appendTo(Builder builder, int renderedShift, int rawShift) {
+        Reader run = reader(0);
+        while (run.next()) {
+            builder.map(run.renderedStart + renderedShift, run.renderedLength,
+                    run.rawStart + rawShift, run.rawLength);
+        }
+    }
+
+    // The last run starting at or before `renderedOffset`, or null if there is none.
+    private Reader seek(int renderedOffset) {
+        int low = 0;
+        int high = size == 0 ? -1 : (size - 1) / CHECKPOINT_RUNS;
+        int checkpoint = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (checkpointStarts[mid] <= renderedOffset) {
+                checkpoint = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (checkpoint < 0) {
+            return null;
+        }
+        Reader run = reader(checkpoint);
+        run.next();
+        while (run.hasNext() && run.nextRenderedStart() <= renderedOffset) {
+            run.next();
+        }
+        return run;
+    }
+
+    private Reader reader(int checkpoint) {
+        if (size == 0) {
+            return new Reader(this, 0, 0, 0, 0, 0);
+        }
+        return new Reader(this, checkpoint * CHECKPOINT_RUNS, checkpointOffsets[checkpoint],
+                checkpointRenderedEnds[checkpoint], checkpointRawEnds[checkpoint], size);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Decodes runs one after another from a checkpoint.
+    private static final class Reader {
+        private final byte[] data;
+        private final int size;
+        private int next;
+        private int position;
+        private int renderedStart;
+        private int renderedLength;
+        private int rawStart;
+        private int rawLength;
+        private boolean linear;
+
+        private Reader(SourceMap map, int next, int position, int renderedEnd, int rawEnd, int size) {
+            this.data = map.data;
+            this.size = size;
+            this.next = next;
+            this.position = position;
+            // An empty run ending where the previous one did, so the first next() can apply its gaps.
+            this.renderedStart = renderedEnd;
+            this.rawStart = rawEnd;
+        }
+
+        private boolean hasNext() {
+            return next < size;
+        }
+
+        private int nextRenderedStart() {
+            long header = readVarintAt(position);
+            return renderedStart + renderedLength + (int) unzigzag(header >>> 1);
+        }
+
+        private boolean next() {
+            if (!hasNext()) {
+                return false;
+            }
+            long header = readVarint();
+            int renderedEnd = renderedStart + renderedLength;
+            int rawEnd = rawStart + rawLength;
+            linear = (header & 1) == 0;
+            renderedStart = renderedEnd + (int) unzigzag(header >>> 1);
+            rawStart = rawEnd + (int) unzigzag(readVarint());
+            renderedLength = (int) readVarint();
+            rawLength = linear ? renderedLength : (int) readVarint();
+            next++;
+            return true;
+        }
+
+        private boolean isLinear() {
+            return linear;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private long readVarintAt(int at) {
+            int saved = position;
+            position = at;
+            long value = readVarint();
+            position = saved;
+            return value;
+        }
+    }
+
+    static final class Builder {
+        private byte[] data = new byte[64];
+        private int length;
+        private int size;
+        private int[] checkpointStarts = new int[4];
+        private int[] checkpointRenderedEnds = new int[4];
+        private int[] checkpointRawEnds = new int[4];
+        private int[] checkpointOffsets = new int[4];
+        private int checkpoints;
+        // Rendered and raw ends of the last encoded run.
+        private int renderedEnd;
+        private int rawEnd;
+        // The newest run stays open, unencoded, so a contiguous char-for-char run can extend it.
+        private boolean open;
+        private int openRenderedStart;
+        private int openRenderedLength;
+        private int openRawStart;
+        private int openRawLength;
+
+        // Runs must be added in increasing rendered order.
+        void map(int renderedStart, int renderedLength, int rawStart, int rawLength) {
+            if (renderedLength <= 0) {
+                return;
+            }
+            if (open && openRenderedLength == openRawLength && renderedLength == rawLength
+                    && openRenderedStart + openRenderedLength == renderedStart
+                    && openRawStart + openRawLength == rawStart) {
+                openRenderedLength += renderedLength;
+                openRawLength += rawLength;
+                return;
+            }
+            encodeOpenRun();
+            open = true;
+            openRenderedStart = renderedStart;
+            openRenderedLength = renderedLength;
+            openRawStart = rawStart;
+            openRawLength = rawLength;
+        }
+
+        // Closes the newest run, so reset() can drop everything added after this point.
+        int mark() {
+            encodeOpenRun();
+            return size;
+        }
+
+        void reset(int mark) {
+            open = false;
+            if (mark >= size) {
+                return;
+            }
+            SourceMap encoded = snapshot();
+            Reader run = encoded.reader(mark / CHECKPOINT_RUNS);
+            while (run.next < mark) {
+                run.next();
+            }
+            length = run.position;
+            renderedEnd = run.renderedStart + run.renderedLength;
+            rawEnd = run.rawStart + run.rawLength;
+            size = mark;
+            checkpoints = (mark + CHECKPOINT_RUNS - 1) / CHECKPOINT_RUNS;
+        }
+
+        void append(SourceMap other, int renderedShift, int rawShift) {
+            other.appendTo(this, renderedShift, rawShift);
+        }
+
+        // Leaves the newest run open, so runs added afterwards can still extend it.
+        SourceMap build() {
+            boolean wasOpen = open;
+            int openLength = length;
+            int openSize = size;
+            int openCheckpoints = checkpoints;
+            int openRenderedEnd = renderedEnd;
+            int openRawEnd = rawEnd;
+            encodeOpenRun();
+            SourceMap map = new SourceMap(
+                    Arrays.copyOf(data, length),
+                    size,
+                    Arrays.copyOf(checkpointStarts, checkpoints),
+                    Arrays.copyOf(checkpointRenderedEnds, checkpoints),
+                    Arrays.copyOf(checkpointRawEnds, checkpoints),
+                    Arrays.copyOf(checkpointOffsets, checkpoints));
+            open = wasOpen;
+            length = openLength;
+            size = openSize;
+            checkpoints = openCheckpoints;
+            renderedEnd = openRenderedEnd;
+            rawEnd = openRawEnd;
+            return map;
+        }
+
+        // A view of the encoded runs that shares this builder's arrays; only valid until the next change.
+        private SourceMap snapshot() {
+            return new SourceMap(data, size, checkpointStarts, checkpointRenderedEnds, checkpointRawEnds,
+                    checkpointOffsets);
+        }
+
+        private void encodeOpenRun() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            if (size % CHECKPOINT_RUNS == 0) {
+                addCheckpoint();
+            }
+            if (length + MAX_RUN_BYTES > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + MAX_RUN_BYTES));
+            }
+            boolean linear = openRenderedLength == openRawLength;
+            writeVarint(zigzag((long) openRenderedStart - renderedEnd) << 1 | (linear ? 0 : 1));
+            writeVarint(zigzag((long) openRawStart - rawEnd));
+            writeVarint(openRenderedLength);
+            if (!linear) {
+                writeVarint(openRawLength);
+            }
+            renderedEnd = openRenderedStart + openRenderedLength;
+            rawEnd = openRawStart + openRawLength;
+            size++;
+        }
+
+        private void addCheckpoint() {
+            if (checkpoints == checkpointStarts.length) {
+                int capacity = checkpoints * 2;
+                checkpointStarts = Arrays.copyOf(checkpointStarts, capacity);
+                checkpointRenderedEnds = Arrays.copyOf(checkpointRenderedEnds, capacity);
+                checkpointRawEnds = Arrays.copyOf(checkpointRawEnds, capacity);
+                checkpointOffsets = Arrays.copyOf(checkpointOffsets, capacity);
+            }
+            checkpointStarts[checkpoints] = openRenderedStart;
+            checkpointRenderedEnds[checkpoints] = renderedEnd;
+            checkpointRawEnds[checkpoints] = rawEnd;
+            checkpointOffsets[checkpoints] = length;
+            checkpoints++;
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.jisoo.burp.unicodejson;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+// Pretty-prints JSON straight off a JsonParser in the same layout as Jackson's DefaultPrettyPrinter
+// with a two-space indenter ("key" : value, "{ }" for empty containers), using '\n' line breaks,
+// and records a highlight span for every key and scalar as it is written. String values are shown
+// with Chinese escapes decoded, or as the document they hold. With a `source`, each key and scalar
+// is also mapped back to its raw token, found by scanning `source` in step with the parser.
+final class SpanJsonWriter {
+    private static final JsonStringEncoder ENCODER = JsonStringEncoder.getInstance();
+
+    private final RenderResult.Builder out;
+    private final JsonFactory factory;
+    private final CharSequence source;
+    private final int rawShift;
+    private int cursor;
+
+    SpanJsonWriter(RenderResult.Builder out, JsonFactory factory) {
+        this(out, factory, null, 0);
+    }
+
+    // `source` is the text being parsed and `rawShift` the raw offset of its first char.
+    SpanJsonWriter(RenderResult.Builder out, JsonFactory factory, CharSequence source, int rawShift) {
+        this.out = out;
+        this.factory = factory;
+        this.source = source;
+        this.rawShift = rawShift;
+    }
+
+    // Moves the source scan to `sourceIndex`, for parsers that start partway into the source.
+    void seek(int sourceIndex) {
+        cursor = sourceIndex;
+    }
+
+    // Writes the value at the parser's current token; the parser is left on its last token.
+    void writeValue(JsonParser parser, int depth) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT -> writeObject(parser, depth);
+            case START_ARRAY -> writeArray(parser, depth);
+            default -> writeScalar(parser, depth);
+        }
+    }
+
+    void writeArrayElement(JsonParser parser, boolean first, int depth) throws IOException {
+        if (!first) {
+            out.append(',');
+        }
+        newline(depth);
+        writeValue(parser, depth);
+    }
+
+    // The parser sits on the field's value; its name has already been read.
+    void writeObjectField(String name, JsonParser parser, boolean first, int depth) throws IOException {
+        if (!first) {
+            out.append(',');
+        }
+        newline(depth);
+        int start = out.length();
+        writeString(name, TokenSpans.KEY);
+        if (source != null) {
+            int sourceStart = nextTokenStart();
+            mapToken(start, sourceStart, quotedEnd(sourceStart));
+        }
+        out.append(" : ");
+        writeValue(parser, depth);
+    }
+
+    // Writes a field name that is not in the source, such as one of a summary's own fields.
+    void writeFieldName(String name, boolean first, int depth) {
+        if (!first) {
+            out.append(',');
+        }
+        newline(depth);
+        writeString(name, TokenSpans.KEY);
+        out.append(" : ");
+    }
+
+    void writeNumber(long value) {
+        int start = out.length();
+        out.text().append(value);
+        out.spanFrom(start, TokenSpans.NUMBER);
+    }
+
+    void newline(int depth) {
+        out.append('\n');
+        for (int i = 0; i < depth; i++) {
+            out.append("  ");
+        }
+    }
+
+    private void writeObject(JsonParser parser, int depth) throws IOException {
+        out.append('{');
+        boolean first = true;
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_OBJECT; token = parser.nextToken()) {
+            requireToken(token);
+            String name = parser.currentName();
+            requireToken(parser.nextToken());
+            writeObjectField(name, parser, first, depth + 1);
+            first = false;
+        }
+        if (first) {
+            out.append(" }");
+            return;
+        }
+        newline(depth);
+        out.append('}');
+    }
+
+    private void writeArray(JsonParser parser, int depth) throws IOException {
+        out.append('[');
+        boolean first = true;
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            requireToken(token);
+            writeArrayElement(parser, first, depth + 1);
+            first = false;
+        }
+        if (first) {
+            out.append(" ]");
+            return;
+        }
+        newline(depth);
+        out.append(']');
+    }
+
+    private static void requireToken(JsonToken token) throws IOException {
+        if (token == null) {
+            throw new IOException("Unexpected end of JSON input");
+        }
+    }
+
+    // Numbers print the way readTree's nodes print them, so e.g. 1e2 shows as 100.0. Doubles that
+    // overflow, like 1e400, are quoted as the generator's QUOTE_NON_NUMERIC_NUMBERS did, since a bare
+    // Infinity is not JSON.
+    private void writeScalar(JsonParser parser, int depth) throws IOException {
+        int start = out.length();
+        int sourceStart = source == null ? 0 : nextTokenStart();
+        int sourceEnd;
+        JsonToken token = parser.currentToken();
+        switch (token) {
+            case VALUE_STRING -> {
+                writeStringValue(parser, depth);
+                sourceEnd = source == null ? 0 : quotedEnd(sourceStart);
+            }
+            case VALUE_NUMBER_INT -> {
+                switch (parser.getNumberType()) {
+                    case INT -> out.text().append(parser.getIntValue());
+                    case LONG -> out.text().append(parser.getLongValue());
+                    default -> out.text().append(parser.getBigIntegerValue());
+                }
+                out.spanFrom(start, TokenSpans.NUMBER);
+                sourceEnd = sourceStart + parser.getTextLength();
+            }
+            case VALUE_NUMBER_FLOAT -> {
+                double value = parser.getDoubleValue();
+                if (Double.isFinite(value)) {
+                    out.text().append(value);
+                    out.spanFrom(start, TokenSpans.NUMBER);
+                } else {
+                    writeString(Double.toString(value), TokenSpans.STRING);
+                }
+                sourceEnd = sourceStart + parser.getTextLength();
+            }
+            case VALUE_TRUE, VALUE_FALSE, VALUE_NULL -> {
+                out.append(token.asString());
+                out.spanFrom(start, TokenSpans.KEYWORD);
+                sourceEnd = sourceStart + token.asString().length();
+            }
+            default -> throw new IOException("Unexpected JSON token " + token);
+        }
+        if (source != null) {
+            mapToken(start, sourceStart, sourceEnd);
+        }
+    }
+
+    private void writeStringValue(JsonParser parser, int depth) throws IOException {
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        CharBuffer value = CharBuffer.wrap(chars, offset, length);
+        // Most strings hold neither escapes nor a document; print those straight from the parser's buffer.
+        if (!containsBackslash(chars, offset, length) && !MessageTransformer.looksLikeJsonContainer(value)) {
+            writeString(value, TokenSpans.STRING);
+            return;
+        }
+
+        String decoded = MessageTransformer.decodeChineseUnicodeEscapes(value.toString());
+        if (!MessageTransformer.looksLikeJsonContainer(decoded) || !writeNested(decoded, depth)) {
+            writeString(decoded, TokenSpans.STRING);
+        }
+    }
+
+    private boolean writeNested(String document, int depth) {
+        RenderResult.Mark mark = out.mark();
+        try (JsonParser nested = factory.createParser(document)) {
+            nested.nextToken();
+            new SpanJsonWriter(out, factory).writeValue(nested, depth);
+            return true;
+        } catch (IOException e) {
+            out.reset(mark);
+            return false;
+        }
+    }
+
+    private static boolean containsBackslash(char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (chars[i] == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeString(CharSequence value, byte type) {
+        int start = out.length();
+        out.append('"');
+        ENCODER.quoteAsString(value, out.text());
+        out.append('"');
+        out.spanFrom(start, type);
+    }
+
+    private void mapToken(int renderedStart, int sourceStart, int sourceEnd) {
+        out.mapFrom(renderedStart, rawShift + sourceStart, sourceEnd - sourceStart);
+        cursor = sourceEnd;
+    }
+
+    // The parser has already accepted the input, so only whitespace and punctuation sit between tokens.
+    private int nextTokenStart() {
+        while (cursor < source.length()) {
+            char ch = source.charAt(cursor);
+            if (ch != ' ' && ch != '\t' && ch != '\r' && ch != '\n'
+                    && ch != ',' && ch != ':' && ch != '[' && ch != ']' && ch != '{' && ch != '}') {
+                break;
+            }
+            cursor++;
+        }
+        return cursor;
+    }
+
+    private int quotedEnd(int start) {
+        int index = start + 1;
+        while (index < source.length()) {
+            char ch = source.charAt(index);
+            if (ch == '\\') {
+                index += 2;
+            } else if (ch == '"') {
+                return index + 1;
+            } else {
+                index++;
+            }
+        }
+        return source.length();
+    }
+}
@@ -0,0 +1,199 @@
+package com.jisoo.burp.unicodejson;
+
+import java.util.Arrays;
+
+// Highlight spans kept in parallel primitive arrays, ordered by start offset.
+final class TokenSpans {
+    static final byte KEY = 1;
+    static final byte STRING = 2;
+    static final byte NUMBER = 3;
+    static final byte KEYWORD = 4;
+    private static final String[] KEYWORDS = {"true", "false", "null"};
+
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private byte[] types = new byte[16];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int length(int index) {
+        return lengths[index];
+    }
+
+    int end(int index) {
+        return starts[index] + lengths[index];
+    }
+
+    byte type(int index) {
+        return types[index];
+    }
+
+    void add(int start, int length, byte type) {
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        starts[size] = start;
+        lengths[size] = length;
+        types[size] = type;
+        size++;
+    }
+
+    void addAll(TokenSpans other, int shift) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.starts[i] + shift, other.lengths[i], other.types[i]);
+        }
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void truncate(int newSize) {
+        size = Math.min(size, newSize);
+    }
+
+    // Index of the first span that ends after `offset`, or size() if there is none.
+    int firstEndingAfter(int offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (end(mid) <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Single linear pass over [from, to) that records strings, keys, numbers and keywords.
+    static void lexJson(CharSequence text, int from, int to, TokenSpans out) {
+        int index = from;
+        while (index < to) {
+            char ch = text.charAt(index);
+            if (ch == '"') {
+                int end = stringEnd(text, index, to);
+                out.add(index, end - index, isFollowedByColon(text, end, to) ? KEY : STRING);
+                index = end;
+            } else if (ch == '-' || (ch >= '0' && ch <= '9')) {
+                int end = numberEnd(text, index, to);
+                if (end > index && !isWordChar(text, index - 1, from, to)) {
+                    out.add(index, end - index, NUMBER);
+                    index = end;
+                } else {
+                    index++;
+                }
+            } else if (ch == 't' || ch == 'f' || ch == 'n') {
+                int length = keywordLength(text, index, to);
+                if (length > 0 && !isWordChar(text, index - 1, from, to) && !isWordChar(text, index + length, from, to)) {
+                    out.add(index, length, KEYWORD);
+                    index += length;
+                } else {
+                    index++;
+                }
+            } else {
+                index++;
+            }
+        }
+    }
+
+    private static int stringEnd(CharSequence text, int quote, int to) {
+        int index = quote + 1;
+        while (index < to) {
+            char ch = text.charAt(index);
+            if (ch == '\\') {
+                index += 2;
+            } else if (ch == '"') {
+                return index + 1;
+            } else if (ch == '\n') {
+                return index;
+            } else {
+                index++;
+            }
+        }
+        return Math.min(index, to);
+    }
+
+    private static boolean isFollowedByColon(CharSequence text, int from, int to) {
+        int index = from;
+        while (index < to && Character.isWhitespace(text.charAt(index))) {
+            index++;
+        }
+        return index < to && text.charAt(index) == ':';
+    }
+
+    private static int numberEnd(CharSequence text, int start, int to) {
+        int index = start;
+        if (text.charAt(index) == '-') {
+            index++;
+        }
+        int digitsStart = index;
+        while (index < to && isDigit(text.charAt(index))) {
+            index++;
+        }
+        if (index == digitsStart) {
+            return start;
+        }
+        if (index + 1 < to && text.charAt(index) == '.' && isDigit(text.charAt(index + 1))) {
+            index += 2;
+            while (index < to && isDigit(text.charAt(index))) {
+                index++;
+            }
+        }
+        if (index < to && (text.charAt(index) == 'e' || text.charAt(index) == 'E')) {
+            int exponent = index + 1;
+            if (exponent < to && (text.charAt(exponent) == '+' || text.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            if (exponent < to && isDigit(text.charAt(exponent))) {
+                index = exponent;
+                while (index < to && isDigit(text.charAt(index))) {
+                    index++;
+                }
+            }
+        }
+        return index;
+    }
+
+    private static int keywordLength(CharSequence text, int start, int to) {
+        for (String keyword : KEYWORDS) {
+            int end = start + keyword.length();
+            if (end <= to && regionMatches(text, start, keyword)) {
+                return keyword.length();
+            }
+        }
+        return 0;
+    }
+
+    private static boolean regionMatches(CharSequence text, int start, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (text.charAt(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWordChar(CharSequence text, int index, int from, int to) {
+        if (index < from || index >= to) {
+            return false;
+        }
+        char ch = text.charAt(index);
+        return Character.isLetterOrDigit(ch) || ch == '_';
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+}
@@ -16,6 +16,10 @@ final class UnicodeJsonRequestEditor implements ExtensionProvidedHttpRequestEdit
     UnicodeJsonRequestEditor(MontoyaApi api, MessageTransformer transformer) {
         this.viewerPane = new JsonViewerPane(api);
         this.transformer = transformer;
+        viewerPane.onShowFull(() -> {
+            HttpRequest message = currentRequest;
+            viewerPane.streamContent(sink -> sink.accept(transformer.renderRequestInFull(message)));
+        });
     }
 
     @Override
@@ -26,7 +30,12 @@ final class UnicodeJsonRequestEditor implements ExtensionProvidedHttpRequestEdit
     @Override
     public void setRequestResponse(HttpRequestResponse requestResponse) {
         currentRequest = requestResponse == null ? null : requestResponse.request();
-        String rendered = transformer.renderRequest(currentRequest);
+        HttpRequest message = currentRequest;
+        if (MessageTransformer.isRecordStream(message)) {
+            viewerPane.streamContent(sink -> transformer.renderRequest(message, sink));
+            return;
+        }
+        RenderResult rendered = transformer.renderRequest(message);
         viewerPane.setContent(rendered);
     }
 
@@ -47,7 +56,14 @@ final class UnicodeJsonRequestEditor implements ExtensionProvidedHttpRequestEdit
 
     @Override
     public Selection selectedData() {
-        return null;
+        HttpRequest message = currentRequest;
+        MessageTransformer.ByteRange range = transformer.rawSelection(
+                message, viewerPane.sourceMap(), viewerPane.rawLayout(),
+                viewerPane.selectionStart(), viewerPane.selectionEnd());
+        if (range == null) {
+            return null;
+        }
+        return Selection.selection(message.toByteArray().subArray(range.start(), range.end()), range.start(), range.end());
     }
 
     @Override
@@ -16,6 +16,10 @@ final class UnicodeJsonResponseEditor implements ExtensionProvidedHttpResponseEd
     UnicodeJsonResponseEditor(MontoyaApi api, MessageTransformer transformer) {
         this.viewerPane = new JsonViewerPane(api);
         this.transformer = transformer;
+        viewerPane.onShowFull(() -> {
+            HttpResponse message = currentResponse;
+            viewerPane.streamContent(sink -> sink.accept(transformer.renderResponseInFull(message)));
+        });
     }
 
     @Override
@@ -26,7 +30,12 @@ final class UnicodeJsonResponseEditor implements ExtensionProvidedHttpResponseEd
     @Override
     public void setRequestResponse(HttpRequestResponse requestResponse) {
         currentResponse = requestResponse == null ? null : requestResponse.response();
-        String rendered = transformer.renderResponse(currentResponse);
+        HttpResponse message = currentResponse;
+        if (MessageTransformer.isRecordStream(message)) {
+            viewerPane.streamContent(sink -> transformer.renderResponse(message, sink));
+            return;
+        }
+        RenderResult rendered = transformer.renderResponse(message);
         viewerPane.setContent(rendered);
     }
 
@@ -47,7 +56,14 @@ final class UnicodeJsonResponseEditor implements ExtensionProvidedHttpResponseEd
 
     @Override
     public Selection selectedData() {
-        return null;
+        HttpResponse message = currentResponse;
+        MessageTransformer.ByteRange range = transformer.rawSelection(
+                message, viewerPane.sourceMap(), viewerPane.rawLayout(),
+                viewerPane.selectionStart(), viewerPane.selectionEnd());
+        if (range == null) {
+            return null;
+        }
+        return Selection.selection(message.toByteArray().subArray(range.start(), range.end()), range.start(), range.end());
     }
 
     @Override
@@ -3,18 +3,46 @@ package com.jisoo.burp.unicodejson;
 import burp.api.montoya.BurpExtension;
 import burp.api.montoya.MontoyaApi;
 
+import java.io.IOException;
+
 public final class UnicodeJsonViewerExtension implements BurpExtension {
+    private static final long DISK_CACHE_MAX_BYTES = 512L * 1024 * 1024;
+
     @Override
     public void initialize(MontoyaApi api) {
         api.extension().setName("Unicode JSON Viewer");
 
-        MessageTransformer transformer = new MessageTransformer();
+        MessageTransformer transformer = new MessageTransformer(openDiskCache(api));
         api.userInterface().registerHttpRequestEditorProvider(
                 creationContext -> new UnicodeJsonRequestEditor(api, transformer));
         api.userInterface().registerHttpResponseEditorProvider(
                 creationContext -> new UnicodeJsonResponseEditor(api, transformer));
 
+        api.userInterface().registerSettingsPanel(new ViewerSettingsPanel(api.persistence().preferences()));
+
+        // Pre-warming is on unless it has been switched off in the settings panel.
+        if (ViewerSettingsPanel.isEnabled(api.persistence().preferences(), ViewerSettingsPanel.PREWARM_PREFERENCE, true)) {
+            RenderPrewarmer prewarmer = new RenderPrewarmer(transformer);
+            api.http().registerHttpHandler(prewarmer);
+            api.extension().registerUnloadingHandler(prewarmer::shutdown);
+        }
+
         api.logging().logToOutput("Unicode JSON Viewer loaded. Author: @mistrainn (๑•̀ㅂ•́)و✧");
         api.logging().logToOutput("Tips: Open the \"Decoded JSON\" tab to decode Chinese \\uXXXX and expand nested JSON.");
     }
+
+    // The disk cache is off unless it has been switched on in the settings panel.
+    private static DiskRenderCache openDiskCache(MontoyaApi api) {
+        if (!ViewerSettingsPanel.isEnabled(api.persistence().preferences(), ViewerSettingsPanel.DISK_CACHE_PREFERENCE, false)) {
+            return null;
+        }
+        try {
+            DiskRenderCache diskCache = DiskRenderCache.open(DiskRenderCache.defaultDirectory(), DISK_CACHE_MAX_BYTES);
+            api.extension().registerUnloadingHandler(diskCache::close);
+            return diskCache;
+        } catch (IOException e) {
+            api.logging().logToError("Disk render cache unavailable: " + e.getMessage());
+            return null;
+        }
+    }
 }
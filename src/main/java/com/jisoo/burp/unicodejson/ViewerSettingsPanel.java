@@ -0,0 +1,54 @@
+package com.jisoo.burp.unicodejson;
+
+import burp.api.montoya.persistence.Preferences;
+import burp.api.montoya.ui.settings.SettingsPanel;
+
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import java.util.Set;
+
+// The extension's page under Burp's Settings > Extensions. Each toggle writes its preference as
+// soon as it changes; the extension reads them when it loads.
+final class ViewerSettingsPanel implements SettingsPanel {
+    static final String PREWARM_PREFERENCE = "unicodeJsonViewer.prewarm";
+    static final String DISK_CACHE_PREFERENCE = "unicodeJsonViewer.diskCache";
+
+    private final Preferences preferences;
+    private final JPanel panel = new JPanel();
+
+    ViewerSettingsPanel(Preferences preferences) {
+        this.preferences = preferences;
+        panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+        panel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        panel.add(new JLabel("Unicode JSON Viewer (changes take effect when the extension is reloaded)"));
+        addToggle("Pre-render JSON responses from Proxy and Repeater in the background",
+                PREWARM_PREFERENCE, true);
+        addToggle("Keep renders of large bodies in a disk cache that survives restarts",
+                DISK_CACHE_PREFERENCE, false);
+    }
+
+    static boolean isEnabled(Preferences preferences, String key, boolean defaultValue) {
+        Boolean value = preferences.getBoolean(key);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public JComponent uiComponent() {
+        return panel;
+    }
+
+    @Override
+    public Set<String> keywords() {
+        return Set.of("Unicode", "JSON", "Decoded JSON");
+    }
+
+    private void addToggle(String label, String key, boolean defaultValue) {
+        JCheckBox toggle = new JCheckBox(label, isEnabled(preferences, key, defaultValue));
+        toggle.addActionListener(event -> preferences.setBoolean(key, toggle.isSelected()));
+        panel.add(toggle);
+    }
+}
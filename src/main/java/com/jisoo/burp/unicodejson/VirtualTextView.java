@@ -0,0 +1,370 @@
+package com.jisoo.burp.unicodejson;
+
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
+import javax.swing.KeyStroke;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+
+// Read-only viewer for output too large for a styled document: text lives in a LineBuffer,
+// highlighting in TokenSpans, and painting touches only the lines inside the clip.
+final class VirtualTextView extends JComponent implements Scrollable {
+    private static final int INSET = 4;
+    // Every X_CHECKPOINT_CHARS-th char has its x within its line cached once measured, so a long
+    // line is measured only from the nearest checkpoint before the part being painted or clicked.
+    private static final int X_CHECKPOINT_CHARS = 1024;
+    private static final int UNMEASURED = -1;
+
+    private final LineBuffer buffer = new LineBuffer();
+    private final TokenSpans spans = new TokenSpans();
+    private final Color[] tokenColors = new Color[TokenSpans.KEYWORD + 1];
+    private Color selectionColor = new Color(173, 214, 255);
+    private char[] paintBuffer = new char[256];
+    private final char[] measureBuffer = new char[X_CHECKPOINT_CHARS];
+    private int[] checkpointX = new int[0];
+    // The font the cached checkpoints were measured with.
+    private Font measuredFont;
+    private int selectionAnchor;
+    private int selectionCaret;
+
+    VirtualTextView() {
+        setFocusable(true);
+        setOpaque(true);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent event) {
+                requestFocusInWindow();
+                int offset = offsetAt(event.getPoint());
+                if (!event.isShiftDown()) {
+                    selectionAnchor = offset;
+                }
+                selectionCaret = offset;
+                repaint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent event) {
+                selectionCaret = offsetAt(event.getPoint());
+                scrollRectToVisible(new Rectangle(event.getX(), event.getY(), 1, 1));
+                repaint();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+
+        bindKey(KeyEvent.VK_C, "copy", this::copySelection);
+        bindKey(KeyEvent.VK_A, "select-all", this::selectAll);
+    }
+
+    void setStyleColors(Color base, Color key, Color string, Color number, Color keyword, Color selection) {
+        setForeground(base);
+        tokenColors[TokenSpans.KEY] = key;
+        tokenColors[TokenSpans.STRING] = string;
+        tokenColors[TokenSpans.NUMBER] = number;
+        tokenColors[TokenSpans.KEYWORD] = keyword;
+        if (selection != null) {
+            selectionColor = selection;
+        }
+    }
+
+    void setText(String text) {
+        buffer.clear();
+        spans.clear();
+        Arrays.fill(checkpointX, UNMEASURED);
+        selectionAnchor = 0;
+        selectionCaret = 0;
+        append(text);
+    }
+
+    void append(String chunk) {
+        buffer.append(chunk);
+        revalidate();
+        repaint();
+    }
+
+    int length() {
+        return buffer.length();
+    }
+
+    void addSpans(TokenSpans source, int offset) {
+        spans.addAll(source, offset);
+        repaint();
+    }
+
+    int selectionStart() {
+        return Math.min(selectionAnchor, selectionCaret);
+    }
+
+    int selectionEnd() {
+        return Math.max(selectionAnchor, selectionCaret);
+    }
+
+    String selectedText() {
+        return buffer.substring(selectionStart(), selectionEnd());
+    }
+
+    private void selectAll() {
+        selectionAnchor = 0;
+        selectionCaret = buffer.length();
+        repaint();
+    }
+
+    private void copySelection() {
+        if (selectionStart() == selectionEnd()) {
+            return;
+        }
+        StringSelection contents = new StringSelection(selectedText());
+        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(contents, contents);
+    }
+
+    private void bindKey(int keyCode, String name, Runnable action) {
+        getInputMap(WHEN_FOCUSED).put(KeyStroke.getKeyStroke(keyCode, InputEvent.CTRL_DOWN_MASK), name);
+        getInputMap(WHEN_FOCUSED).put(KeyStroke.getKeyStroke(keyCode, InputEvent.META_DOWN_MASK), name);
+        getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+                action.run();
+            }
+        });
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics metrics = getFontMetrics(getFont());
+        long width = (long) INSET * 2 + (long) buffer.maxLineColumns() * metrics.charWidth('m');
+        long height = (long) INSET * 2 + (long) buffer.lineCount() * metrics.getHeight();
+        return new Dimension((int) Math.min(width, Integer.MAX_VALUE), (int) Math.min(height, Integer.MAX_VALUE));
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        Rectangle clip = graphics.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        graphics.setColor(getBackground());
+        graphics.fillRect(clip.x, clip.y, clip.width, clip.height);
+        // Measured with the component's metrics, like the cached checkpoints and hit testing.
+        FontMetrics metrics = metrics();
+        graphics.setFont(metrics.getFont());
+        int lineHeight = metrics.getHeight();
+        int firstLine = Math.max(0, (clip.y - INSET) / lineHeight);
+        int lastLine = Math.min(buffer.lineCount() - 1, (clip.y + clip.height - INSET) / lineHeight);
+        for (int line = firstLine; line <= lastLine; line++) {
+            paintLine(graphics, metrics, line, INSET + line * lineHeight, clip);
+        }
+    }
+
+    private void paintLine(Graphics graphics, FontMetrics metrics, int line, int top, Rectangle clip) {
+        CharSequence text = buffer.text();
+        int lineEnd = buffer.lineEnd(line);
+
+        // Start at the char under the left edge of the clip, so long lines stay cheap to repaint.
+        int position = charAt(metrics, line, clip.x - INSET);
+        int x = INSET + xInLine(metrics, line, position);
+
+        int visibleEnd = position;
+        int right = x;
+        int clipRight = clip.x + clip.width;
+        while (visibleEnd < lineEnd && right <= clipRight) {
+            right += metrics.charWidth(text.charAt(visibleEnd));
+            visibleEnd++;
+        }
+
+        int selectionStart = selectionStart();
+        int selectionEnd = selectionEnd();
+        int spanIndex = spans.firstEndingAfter(position);
+        int baseline = top + metrics.getAscent();
+        while (position < visibleEnd) {
+            int segmentEnd = visibleEnd;
+            Color color = getForeground();
+            if (spanIndex < spans.size()) {
+                if (spans.start(spanIndex) <= position) {
+                    color = tokenColors[spans.type(spanIndex)];
+                    segmentEnd = Math.min(segmentEnd, spans.end(spanIndex));
+                } else {
+                    segmentEnd = Math.min(segmentEnd, spans.start(spanIndex));
+                }
+            }
+            if (selectionStart > position) {
+                segmentEnd = Math.min(segmentEnd, selectionStart);
+            }
+            if (selectionEnd > position) {
+                segmentEnd = Math.min(segmentEnd, selectionEnd);
+            }
+
+            int length = segmentEnd - position;
+            if (paintBuffer.length < length) {
+                paintBuffer = new char[Math.max(length, paintBuffer.length * 2)];
+            }
+            buffer.getChars(position, segmentEnd, paintBuffer);
+            int width = metrics.charsWidth(paintBuffer, 0, length);
+            if (position >= selectionStart && position < selectionEnd) {
+                graphics.setColor(selectionColor);
+                graphics.fillRect(x, top, width, metrics.getHeight());
+            }
+            graphics.setColor(color == null ? getForeground() : color);
+            graphics.drawChars(paintBuffer, 0, length, x, baseline);
+
+            x += width;
+            position = segmentEnd;
+            while (spanIndex < spans.size() && spans.end(spanIndex) <= position) {
+                spanIndex++;
+            }
+        }
+    }
+
+    private int offsetAt(Point point) {
+        FontMetrics metrics = metrics();
+        int line = Math.max(0, Math.min(buffer.lineCount() - 1, (point.y - INSET) / metrics.getHeight()));
+        return offsetAtX(metrics, line, point.x - INSET);
+    }
+
+    // The char boundary on `line` nearest to `x` pixels from the start of the line.
+    int offsetAtX(int line, int x) {
+        return offsetAtX(metrics(), line, x);
+    }
+
+    // Pixels from the start of its line to the char at `offset`.
+    int xOf(int offset) {
+        return xInLine(metrics(), buffer.lineOf(offset), offset);
+    }
+
+    private int offsetAtX(FontMetrics metrics, int line, int x) {
+        int position = charAt(metrics, line, x);
+        if (position < buffer.lineEnd(line)) {
+            int width = metrics.charWidth(buffer.text().charAt(position));
+            if (xInLine(metrics, line, position) + width / 2 <= x) {
+                position++;
+            }
+        }
+        return position;
+    }
+
+    // The char on `line` covering `x` pixels from the start of the line, or the line end past it.
+    private int charAt(FontMetrics metrics, int line, int x) {
+        int start = buffer.lineStart(line);
+        int end = buffer.lineEnd(line);
+        int position = start;
+        int left = 0;
+        // The last checkpoint on the line at or before `x`; x only grows along a line.
+        int low = (start + X_CHECKPOINT_CHARS - 1) / X_CHECKPOINT_CHARS;
+        int high = end / X_CHECKPOINT_CHARS;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int checkpoint = checkpointX(metrics, mid, start);
+            if (checkpoint <= x) {
+                position = mid * X_CHECKPOINT_CHARS;
+                left = checkpoint;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        CharSequence text = buffer.text();
+        while (position < end) {
+            int width = metrics.charWidth(text.charAt(position));
+            if (left + width > x) {
+                break;
+            }
+            left += width;
+            position++;
+        }
+        return position;
+    }
+
+    private int xInLine(FontMetrics metrics, int line, int offset) {
+        int start = buffer.lineStart(line);
+        int checkpoint = offset / X_CHECKPOINT_CHARS;
+        if (checkpoint * X_CHECKPOINT_CHARS > start) {
+            return checkpointX(metrics, checkpoint, start) + measure(metrics, checkpoint * X_CHECKPOINT_CHARS, offset);
+        }
+        return measure(metrics, start, offset);
+    }
+
+    // The x of checkpoint `index`, on the line starting at `lineStart`, measuring any earlier
+    // unmeasured checkpoints of that line first.
+    private int checkpointX(FontMetrics metrics, int index, int lineStart) {
+        if (index >= checkpointX.length) {
+            int previous = checkpointX.length;
+            checkpointX = Arrays.copyOf(checkpointX, Math.max(index + 1, previous * 2));
+            Arrays.fill(checkpointX, previous, checkpointX.length, UNMEASURED);
+        }
+        if (checkpointX[index] != UNMEASURED) {
+            return checkpointX[index];
+        }
+        int first = index;
+        while ((first - 1) * X_CHECKPOINT_CHARS >= lineStart && checkpointX[first - 1] == UNMEASURED) {
+            first--;
+        }
+        for (int i = first; i <= index; i++) {
+            int from = (i - 1) * X_CHECKPOINT_CHARS;
+            checkpointX[i] = from >= lineStart
+                    ? checkpointX[i - 1] + measure(metrics, from, i * X_CHECKPOINT_CHARS)
+                    : measure(metrics, lineStart, i * X_CHECKPOINT_CHARS);
+        }
+        return checkpointX[index];
+    }
+
+    private int measure(FontMetrics metrics, int from, int to) {
+        int width = 0;
+        for (int start = from; start < to; start += measureBuffer.length) {
+            int end = Math.min(to, start + measureBuffer.length);
+            buffer.getChars(start, end, measureBuffer);
+            width += metrics.charsWidth(measureBuffer, 0, end - start);
+        }
+        return width;
+    }
+
+    // Metrics of the current font; cached checkpoints are dropped when the font changes.
+    private FontMetrics metrics() {
+        Font font = getFont();
+        if (font != measuredFont) {
+            measuredFont = font;
+            Arrays.fill(checkpointX, UNMEASURED);
+        }
+        return getFontMetrics(font);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        FontMetrics metrics = getFontMetrics(getFont());
+        return orientation == SwingConstants.VERTICAL ? metrics.getHeight() : metrics.charWidth('m');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() != null && getParent().getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() != null && getParent().getHeight() > getPreferredSize().height;
+    }
+}
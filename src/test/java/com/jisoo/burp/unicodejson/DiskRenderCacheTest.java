@@ -0,0 +1,156 @@
+package com.jisoo.burp.unicodejson;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskRenderCacheTest {
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    private final MessageTransformer transformer = new MessageTransformer();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rendersShouldSurviveReopening() throws Exception {
+        RenderResult rendered = transformer.transformBody("{\"msg\":\"\\u4f60\\u597d\",\"n\":[1,true,null]}", "application/json");
+        String key = key("first", "application/json");
+
+        DiskRenderCache cache = DiskRenderCache.open(directory, MAX_BYTES);
+        cache.put(key, rendered);
+        cache.close();
+
+        DiskRenderCache reopened = DiskRenderCache.open(directory, MAX_BYTES);
+        RenderResult restored = reopened.get(key);
+        reopened.close();
+
+        assertNotNull(restored);
+        assertEquals(rendered.text(), restored.text());
+        assertEquals(rendered.spans().size(), restored.spans().size());
+        for (int i = 0; i < rendered.spans().size(); i++) {
+            assertEquals(rendered.spans().start(i), restored.spans().start(i));
+            assertEquals(rendered.spans().length(i), restored.spans().length(i));
+            assertEquals(rendered.spans().type(i), restored.spans().type(i));
+        }
+        assertEquals(rendered.sourceMap().size(), restored.sourceMap().size());
+        for (int offset = 0; offset <= rendered.text().length(); offset++) {
+            assertEquals(rendered.sourceMap().rawStartOf(offset), restored.sourceMap().rawStartOf(offset));
+        }
+    }
+
+    @Test
+    void keyShouldDependOnContentTypeAndVersion() {
+        byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+        String key = DiskRenderCache.keyFor(body, "application/json", 1);
+
+        assertEquals(key, DiskRenderCache.keyFor(body, "application/json", 1));
+        assertNotEquals(key, DiskRenderCache.keyFor(body, "text/plain", 1));
+        assertNotEquals(key, DiskRenderCache.keyFor(body, "application/json", 2));
+    }
+
+    @Test
+    void directoryShouldBeRefusedWhileAnotherCacheHoldsIt() throws Exception {
+        DiskRenderCache cache = DiskRenderCache.open(directory, MAX_BYTES);
+        assertThrows(IOException.class, () -> DiskRenderCache.open(directory, MAX_BYTES));
+        cache.close();
+
+        DiskRenderCache reopened = DiskRenderCache.open(directory, MAX_BYTES);
+        reopened.close();
+    }
+
+    @Test
+    void tornTailShouldBeDroppedOnOpen() throws Exception {
+        DiskRenderCache cache = DiskRenderCache.open(directory, MAX_BYTES);
+        cache.put(key("a", null), RenderResult.plain("first"));
+        cache.put(key("b", null), RenderResult.plain("second"));
+        Path log = cache.logFile();
+        cache.close();
+        long complete = Files.size(log);
+        Files.write(log, new byte[]{0x55, 0x4A, 0x52, 0x31, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        DiskRenderCache reopened = DiskRenderCache.open(directory, MAX_BYTES);
+        assertEquals(complete, Files.size(log));
+        assertEquals("first", reopened.get(key("a", null)).text());
+        assertEquals("second", reopened.get(key("b", null)).text());
+        reopened.put(key("c", null), RenderResult.plain("third"));
+        reopened.flush();
+        assertEquals("third", reopened.get(key("c", null)).text());
+        reopened.close();
+    }
+
+    @Test
+    void compactionShouldKeepRecentRendersWithinTheCap() throws Exception {
+        long maxBytes = 64 * 1024;
+        String text = "x".repeat(2_000);
+        DiskRenderCache cache = DiskRenderCache.open(directory, maxBytes);
+        for (int i = 0; i < 100; i++) {
+            cache.put(key("entry" + i, null), RenderResult.plain(text + i));
+            cache.flush();
+        }
+        // Touch an old entry so it counts as recently used.
+        assertNotNull(cache.get(key("entry90", null)));
+        for (int i = 100; i < 110; i++) {
+            cache.put(key("entry" + i, null), RenderResult.plain(text + i));
+            cache.flush();
+        }
+
+        assertTrue(Files.size(cache.logFile()) <= maxBytes);
+        assertNull(cache.get(key("entry0", null)));
+        assertEquals(text + 90, cache.get(key("entry90", null)).text());
+        assertEquals(text + 109, cache.get(key("entry109", null)).text());
+        cache.close();
+
+        DiskRenderCache reopened = DiskRenderCache.open(directory, maxBytes);
+        assertEquals(text + 109, reopened.get(key("entry109", null)).text());
+        // Only the log compaction switched to is left behind.
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.getFileName().toString().endsWith(".log")).count());
+        }
+        reopened.close();
+    }
+
+    @Test
+    void putsShouldBeReadableOnceWritten() throws Exception {
+        DiskRenderCache cache = DiskRenderCache.open(directory, MAX_BYTES);
+        cache.put(key("a", null), RenderResult.plain("first"));
+        cache.flush();
+        assertEquals("first", cache.get(key("a", null)).text());
+        cache.close();
+        assertNull(cache.get(key("a", null)));
+    }
+
+    @Test
+    void putsShouldBeDroppedWhileClosing() throws Exception {
+        DiskRenderCache cache = DiskRenderCache.open(directory, 64 * MAX_BYTES);
+        // Keeps the writer busy, so close() is still draining while the puts below arrive.
+        cache.put(key("large", null), RenderResult.plain("x".repeat(4 * 1024 * 1024)));
+        Thread closer = new Thread(cache::close);
+        closer.start();
+        for (int i = 0; closer.isAlive(); i++) {
+            cache.put(key("late" + i, null), RenderResult.plain("late"));
+        }
+        closer.join();
+
+        DiskRenderCache reopened = DiskRenderCache.open(directory, 64 * MAX_BYTES);
+        assertEquals(4 * 1024 * 1024, reopened.get(key("large", null)).text().length());
+        reopened.close();
+    }
+
+    private static String key(String body, String contentType) {
+        return DiskRenderCache.keyFor(body.getBytes(StandardCharsets.UTF_8), contentType, MessageTransformer.RENDER_VERSION);
+    }
+}
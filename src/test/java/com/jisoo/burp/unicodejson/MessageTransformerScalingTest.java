@@ -0,0 +1,286 @@
+package com.jisoo.burp.unicodejson;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.SwingUtilities;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+// Runs each pathological input at a base size and FACTOR times that size and fails when time or
+// allocation grows clearly faster than linearly. A quadratic regression shows up as a ratio near
+// FACTOR^2, far above the allowed slack.
+class MessageTransformerScalingTest {
+    private static final int BASE_CHARS = 128 * 1024;
+    private static final int FACTOR = 8;
+    private static final double MAX_TIME_RATIO = FACTOR * 3.0;
+    private static final double MAX_ALLOCATION_RATIO = FACTOR * 2.0;
+    // Below this, timer noise dominates and the ratio says nothing about complexity.
+    private static final long MIN_MEANINGFUL_NANOS = 2_000_000L;
+    private static final int RUNS = 5;
+    private static final int WARMUP_ATTEMPTS = 20;
+    private static final int ATTEMPTS = 3;
+
+    private final MessageTransformer transformer = new MessageTransformer();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void decodeShouldScaleLinearlyOnBackslashRuns() {
+        assertLinear("backslash run",
+                size -> "\\".repeat(size - 5) + "u4e2d",
+                MessageTransformer::decodeChineseUnicodeEscapes);
+    }
+
+    @Test
+    void decodeShouldScaleLinearlyOnLoneHighSurrogates() {
+        assertLinear("lone high surrogates",
+                size -> "\\ud840".repeat(size / 6),
+                MessageTransformer::decodeChineseUnicodeEscapes);
+    }
+
+    @Test
+    void transformShouldScaleLinearlyOnLoneHighSurrogatesInJson() {
+        assertLinear("lone high surrogates in json",
+                size -> "{\"s\":\"" + "\\\\ud840x".repeat(size / 8) + "\"}",
+                body -> transformer.transformBodyForDisplay(body, "application/json"));
+    }
+
+    @Test
+    void transformShouldScaleLinearlyOnDeeplyNestedStringifiedJson() {
+        assertLinear("nested stringified json",
+                this::nestedStringifiedJson,
+                body -> transformer.transformBodyForDisplay(body, "application/json"));
+    }
+
+    @Test
+    void transformShouldScaleLinearlyWhenTopLevelParseFailsLate() {
+        assertLinear("late top-level parse failure",
+                size -> "[" + "1,".repeat(size / 2) + "oops]",
+                body -> transformer.transformBodyForDisplay(body, "application/json"));
+    }
+
+    @Test
+    void transformShouldScaleLinearlyWhenNestedParsesFailLate() {
+        String brokenNested = "\"[" + "1,".repeat(64) + "oops]\"";
+        assertLinear("late nested parse failures",
+                size -> {
+                    StringBuilder body = new StringBuilder(size + 256).append('{');
+                    for (int i = 0; body.length() < size; i++) {
+                        body.append(i == 0 ? "" : ",").append("\"k").append(i).append("\":").append(brokenNested);
+                    }
+                    return body.append('}').toString();
+                },
+                body -> transformer.transformBodyForDisplay(body, "application/json"));
+    }
+
+    @Test
+    void transformShouldScaleLinearlyOnManyNdjsonRecords() {
+        assertLinear("ndjson records",
+                size -> "{\"msg\":\"\\\\u4f60\\\\u597d\",\"n\":12345}\n".repeat(size / 40),
+                body -> transformer.transformBodyForDisplay(body, "application/x-ndjson"));
+    }
+
+    @Test
+    void steadyStateRenderShouldAllocateCloseToOutputSize() {
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < 20_000; i++) {
+            array.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"item\",\"ok\":true}");
+        }
+        String body = array.append("]").toString();
+        // Sequential, so every allocation happens on the measured thread.
+        MessageTransformer sequential = new MessageTransformer(Integer.MAX_VALUE);
+        Consumer<String> render = input -> sequential.transformBody(input, "application/json");
+        render.accept(body);
+
+        // The output text, its span table and source map are the only allocations that should remain.
+        RenderResult rendered = sequential.transformBody(body, "application/json");
+        long outputBytes = rendered.text().length() * 2L + rendered.spans().size() * 9L
+                + rendered.sourceMap().byteSize();
+        long allocated = measure(body, render).allocatedBytes();
+        if (allocated > outputBytes * 4) {
+            fail("render allocated " + (allocated / 1024) + "KiB for " + (outputBytes / 1024) + "KiB of output");
+        }
+    }
+
+    @Test
+    void summarizedRenderShouldNotAllocateAFullSizeOutput() {
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n\r\n";
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < 50_000; i++) {
+            array.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"item\",\"ok\":true}");
+        }
+        String body = array.append("]").toString();
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        String raw = head + body;
+        ByteArray bodyArray = (ByteArray) Proxy.newProxyInstance(ByteArray.class.getClassLoader(),
+                new Class<?>[]{ByteArray.class},
+                (proxy, method, args) -> method.getName().equals("getBytes") ? bodyBytes : null);
+        HttpResponse response = (HttpResponse) Proxy.newProxyInstance(HttpResponse.class.getClassLoader(),
+                new Class<?>[]{HttpResponse.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "toString" -> raw;
+                    case "body" -> bodyArray;
+                    case "bodyToString" -> body;
+                    case "headerValue" -> "Content-Type".equalsIgnoreCase((String) args[0]) ? "application/json" : null;
+                    default -> null;
+                });
+
+        // A fresh transformer per run, so every run summarizes instead of hitting the render cache.
+        Consumer<HttpResponse> render = input -> new MessageTransformer(Integer.MAX_VALUE).renderResponse(input);
+        // Until the JIT has compiled the decoding path, a run also allocates a throwaway copy of the
+        // body, so allow for a few rounds of warming up.
+        long allocated = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < WARMUP_ATTEMPTS && allocated > body.length() * 2L; attempt++) {
+            allocated = measure(response, render).allocatedBytes();
+        }
+        // Decoding the body and scanning it; the full output would add about three times its size.
+        if (allocated > body.length() * 2L) {
+            fail("summary allocated " + (allocated / 1024) + "KiB for a " + (body.length() / 1024) + "KiB body");
+        }
+    }
+
+    @Test
+    void viewerShouldScaleLinearlyOnSingleLineManyTokens() throws Exception {
+        JsonViewerPane pane = newViewerPane();
+        onEventDispatchThread(() -> assertLinear("single-line tokens",
+                size -> {
+                    StringBuilder body = new StringBuilder(size + 64).append('{');
+                    for (int i = 0; body.length() < size; i++) {
+                        body.append(i == 0 ? "" : ",").append("\"k").append(i).append("\":").append(i % 2 == 0 ? "true" : "1.5");
+                    }
+                    return lexed(body.append('}').toString());
+                },
+                pane::setContent,
+                BASE_CHARS / 8));
+    }
+
+    @Test
+    void viewerShouldScaleLinearlyOnHugeSingleLineString() throws Exception {
+        JsonViewerPane pane = newViewerPane();
+        onEventDispatchThread(() -> assertLinear("single-line string",
+                size -> lexed("{\"s\":\"" + "a\\n".repeat(size / 3) + "\"}"),
+                pane::setContent,
+                BASE_CHARS / 8));
+    }
+
+    @Test
+    void viewerShouldScaleLinearlyOnLargePrettyPrintedBodies() throws Exception {
+        JsonViewerPane pane = newViewerPane();
+        onEventDispatchThread(() -> assertLinear("virtualized pretty-printed body",
+                size -> lexed("[\n" + "  {\n    \"id\" : 12345,\n    \"ok\" : true\n  },\n".repeat(size / 48) + "  null\n]"),
+                pane::setContent,
+                BASE_CHARS * 4));
+    }
+
+    // Viewer inputs carry the spans the transformer would have produced, built outside the timing.
+    private static RenderResult lexed(String text) {
+        TokenSpans spans = new TokenSpans();
+        TokenSpans.lexJson(text, 0, text.length(), spans);
+        return new RenderResult(text, spans);
+    }
+
+    private String nestedStringifiedJson(int size) {
+        // Each level stringifies the previous document, doubling its escaping; pad the top level to size.
+        String document = "{\"v\":\"\\u4e2d\\u6587\"}";
+        while (document.length() < size / 2) {
+            ObjectNode wrapper = objectMapper.createObjectNode();
+            wrapper.put("nested", document);
+            wrapper.put("tail", "\\u4e2d");
+            document = wrapper.toString();
+        }
+        ObjectNode top = objectMapper.createObjectNode();
+        top.put("nested", document);
+        top.put("pad", "x".repeat(Math.max(0, size - document.length())));
+        return top.toString();
+    }
+
+    private static <T> void assertLinear(String name, IntFunction<T> generator, Consumer<T> work) {
+        assertLinear(name, generator, work, BASE_CHARS);
+    }
+
+    private static <T> void assertLinear(String name, IntFunction<T> generator, Consumer<T> work, int baseSize) {
+        T small = generator.apply(baseSize);
+        T large = generator.apply(baseSize * FACTOR);
+
+        work.accept(small);
+        work.accept(large);
+
+        // A real complexity regression fails every attempt; a GC pause or JIT hiccup does not.
+        String failure = null;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            Cost smallCost = measure(small, work);
+            Cost largeCost = measure(large, work);
+
+            double timeRatio = (double) largeCost.nanos() / Math.max(smallCost.nanos(), MIN_MEANINGFUL_NANOS);
+            double allocationRatio = (double) largeCost.allocatedBytes() / Math.max(smallCost.allocatedBytes(), 1L);
+            if (timeRatio > MAX_TIME_RATIO) {
+                failure = name + ": time grew " + timeRatio + "x for " + FACTOR + "x input ("
+                        + smallCost + " -> " + largeCost + ")";
+            } else if (allocationRatio > MAX_ALLOCATION_RATIO) {
+                failure = name + ": allocation grew " + allocationRatio + "x for " + FACTOR + "x input ("
+                        + smallCost + " -> " + largeCost + ")";
+            } else {
+                return;
+            }
+        }
+        fail(failure);
+    }
+
+    private static <T> Cost measure(T input, Consumer<T> work) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long bestNanos = Long.MAX_VALUE;
+        long bestAllocated = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            work.accept(input);
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            bestNanos = Math.min(bestNanos, elapsed);
+            bestAllocated = Math.min(bestAllocated, allocated);
+        }
+        return new Cost(bestNanos, bestAllocated);
+    }
+
+    private static JsonViewerPane newViewerPane() throws Exception {
+        JsonViewerPane[] pane = new JsonViewerPane[1];
+        onEventDispatchThread(() -> pane[0] = new JsonViewerPane(stub(MontoyaApi.class)));
+        return pane[0];
+    }
+
+    private static void onEventDispatchThread(Runnable task) throws Exception {
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    // Answers every Montoya call with null, or with a further stub for interface-typed results.
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> method.getReturnType().isInterface() ? stub(method.getReturnType()) : null);
+    }
+
+    private record Cost(long nanos, long allocatedBytes) {
+        @Override
+        public String toString() {
+            return (nanos / 1_000) + "us/" + (allocatedBytes / 1024) + "KiB";
+        }
+    }
+}
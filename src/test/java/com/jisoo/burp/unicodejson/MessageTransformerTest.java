@@ -1,12 +1,24 @@
 package com.jisoo.burp.unicodejson;
 
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import com.fasterxml.jackson.core.util.DefaultIndenter;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 
+import java.lang.reflect.Proxy;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class MessageTransformerTest {
@@ -57,4 +69,346 @@ class MessageTransformerTest {
         JsonNode root = objectMapper.readTree(decoded);
         assertEquals("参数错误", root.get("err_msg").asText());
     }
+
+    @Test
+    void transformBodyShouldExpandEachNdjsonRecord() throws Exception {
+        String input = "{\"a\":\"\\u4e2d\"}\r\n\n{\"b\":\"{\\\"c\\\":1}\"}\n";
+        String output = transformer.transformBodyForDisplay(input, "application/x-ndjson");
+
+        String[] records = output.split("\n(?=\\{)");
+        assertEquals(2, records.length);
+        assertEquals("中", objectMapper.readTree(records[0]).get("a").asText());
+        assertEquals(1, objectMapper.readTree(records[1]).get("b").get("c").asInt());
+    }
+
+    @Test
+    void transformBodyShouldKeepRecordOrderAcrossParallelBatches() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 2_000; i++) {
+            input.append("{\"id\":").append(i).append("}\n");
+        }
+        String output = transformer.transformBodyForDisplay(input.toString(), "application/x-ndjson");
+
+        String[] records = output.split("\n(?=\\{)");
+        assertEquals(2_000, records.length);
+        for (int i = 0; i < records.length; i++) {
+            assertEquals(i, objectMapper.readTree(records[i]).get("id").asInt());
+        }
+    }
+
+    @Test
+    void transformBodyShouldSplitJsonSeqOnRecordSeparator() throws Exception {
+        String input = "\u001e{\"a\":1}\n\u001e[\"\\u6587\"]\n";
+        String output = transformer.transformBodyForDisplay(input, "application/json-seq");
+
+        String[] records = output.split("\n(?=\\[)");
+        assertEquals(2, records.length);
+        assertEquals(1, objectMapper.readTree(records[0]).get("a").asInt());
+        assertEquals("文", objectMapper.readTree(records[1]).get(0).asText());
+    }
+
+    @Test
+    void transformBodyShouldExpandServerSentEventData() throws Exception {
+        String input = "event: update\r\nid: 7\r\ndata: {\"msg\":\r\ndata: \"\\u4f60\"}\r\n\r\n: ping\n\n";
+        String output = transformer.transformBodyForDisplay(input, "text/event-stream");
+
+        String[] events = output.split("\n\n");
+        assertEquals(2, events.length);
+        assertTrue(events[0].startsWith("event: update\nid: 7\ndata: "));
+        JsonNode data = objectMapper.readTree(events[0].substring(events[0].indexOf("data: ") + 6));
+        assertEquals("你", data.get("msg").asText());
+        assertEquals(": ping", events[1]);
+    }
+
+    @Test
+    void parallelNormalizationShouldMatchSequentialOutput() {
+        MessageTransformer sequential = new MessageTransformer(Integer.MAX_VALUE);
+        MessageTransformer parallel = new MessageTransformer(16);
+
+        StringBuilder array = new StringBuilder("[");
+        StringBuilder object = new StringBuilder("{");
+        for (int i = 0; i < 5_000; i++) {
+            String separator = i == 0 ? "" : ",";
+            String element = "{\"id\":" + i + ",\"msg\":\"\\u4f60\\u597d\",\"nested\":\"[1,{\\\"a\\\":[]}]\"}";
+            array.append(separator).append(element);
+            object.append(separator).append("\"k").append(i).append("\":").append(element);
+        }
+        String arrayBody = array.append("]").toString();
+        String objectBody = object.append("}").toString();
+
+        assertEquals(sequential.transformBodyForDisplay(arrayBody, "application/json"),
+                parallel.transformBodyForDisplay(arrayBody, "application/json"));
+        assertEquals(sequential.transformBodyForDisplay(objectBody, "application/json"),
+                parallel.transformBodyForDisplay(objectBody, "application/json"));
+
+        // Too few top-level members to split, and a container closed by the wrong bracket.
+        String wrappedBody = "{\"data\":" + arrayBody + "}";
+        String mismatchedBody = arrayBody.substring(0, arrayBody.length() - 1) + "}";
+        assertEquals(sequential.transformBodyForDisplay(wrappedBody, "application/json"),
+                parallel.transformBodyForDisplay(wrappedBody, "application/json"));
+        assertEquals(sequential.transformBodyForDisplay(mismatchedBody, "application/json"),
+                parallel.transformBodyForDisplay(mismatchedBody, "application/json"));
+    }
+
+    @Test
+    void concurrentRendersShouldMatchSequentialOutput() throws Exception {
+        // A small threshold sends the larger bodies down the parallel path as well.
+        MessageTransformer shared = new MessageTransformer(16);
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            StringBuilder body = new StringBuilder("[");
+            for (int j = 0; j < i * 20; j++) {
+                body.append(j == 0 ? "" : ",").append("{\"id\":").append(j)
+                        .append(",\"msg\":\"\\u4f60\\u597d").append(i).append("\",\"nested\":\"{\\\"a\\\":[1]}\"}");
+            }
+            bodies.add(body.append("]").toString());
+        }
+        List<String> expected = new ArrayList<>();
+        for (String body : bodies) {
+            expected.add(new MessageTransformer().transformBodyForDisplay(body, "application/json"));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> rendered = new ArrayList<>();
+            for (int round = 0; round < 8; round++) {
+                for (String body : bodies) {
+                    rendered.add(executor.submit(() -> shared.transformBodyForDisplay(body, "application/json")));
+                }
+            }
+            for (int i = 0; i < rendered.size(); i++) {
+                assertEquals(expected.get(i % bodies.size()), rendered.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void transformBodyShouldMatchJacksonPrettyPrinterLayout() throws Exception {
+        String input = "{\"a\":[1,2.5,-3e10,true,null,{},[]],\"b\":{\"c\":\"tab\\tquote\\\"ctl\\u0001\"},\"d\":[]}";
+        DefaultPrettyPrinter printer = new DefaultPrettyPrinter()
+                .withObjectIndenter(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE.withLinefeed("\n"))
+                .withArrayIndenter(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE.withLinefeed("\n"));
+        String expected = objectMapper.writer(printer).writeValueAsString(objectMapper.readTree(input));
+
+        assertEquals(expected, transformer.transformBodyForDisplay(input, "application/json"));
+    }
+
+    @Test
+    void transformBodyShouldReportTokenSpans() {
+        RenderResult result = transformer.transformBody("{\"k\":[\"v\",12,false]}", "application/json");
+        TokenSpans spans = result.spans();
+        String text = result.text();
+
+        assertEquals(4, spans.size());
+        assertEquals("\"k\"", text.substring(spans.start(0), spans.end(0)));
+        assertEquals(TokenSpans.KEY, spans.type(0));
+        assertEquals("\"v\"", text.substring(spans.start(1), spans.end(1)));
+        assertEquals(TokenSpans.STRING, spans.type(1));
+        assertEquals("12", text.substring(spans.start(2), spans.end(2)));
+        assertEquals(TokenSpans.NUMBER, spans.type(2));
+        assertEquals("false", text.substring(spans.start(3), spans.end(3)));
+        assertEquals(TokenSpans.KEYWORD, spans.type(3));
+    }
+
+    @Test
+    void overflowingNumbersShouldStayValidJson() {
+        RenderResult result = transformer.transformBody("{\"a\":1e400,\"b\":-1e400,\"c\":1e2}", "application/json");
+        String text = result.text();
+
+        assertTrue(text.contains("\"a\" : \"Infinity\""));
+        assertTrue(text.contains("\"b\" : \"-Infinity\""));
+        assertTrue(text.contains("\"c\" : 100.0"));
+        assertEquals("\"Infinity\"", text.substring(result.spans().start(1), result.spans().end(1)));
+        assertEquals(TokenSpans.STRING, result.spans().type(1));
+    }
+
+    @Test
+    void sourceMapShouldPointRenderedTokensBackAtRawTokens() {
+        String input = "{\"name\":\"\\u4e2d\\u6587\",\r\n \"n\":12,\"nested\":\"{\\\"a\\\":1}\"}";
+        RenderResult result = transformer.transformBody(input, "application/json");
+        SourceMap sourceMap = result.sourceMap();
+        String text = result.text();
+
+        int number = text.indexOf("12");
+        assertEquals(input.indexOf("12"), sourceMap.rawStartOf(number));
+        assertEquals(input.indexOf("12") + 2, sourceMap.rawEndOf(number + 2));
+
+        // A re-encoded string selects its whole raw token, quotes included.
+        int decoded = text.indexOf("\"中文\"");
+        String rawString = "\"\\u4e2d\\u6587\"";
+        assertEquals(input.indexOf(rawString), sourceMap.rawStartOf(decoded + 1));
+        assertEquals(input.indexOf(rawString) + rawString.length(), sourceMap.rawEndOf(decoded + 2));
+
+        // An expanded nested document maps back to the string it came from.
+        int nested = text.indexOf("\"a\"");
+        int rawNested = input.indexOf("\"{");
+        assertEquals(rawNested, sourceMap.rawStartOf(nested));
+        assertEquals(input.length() - 1, sourceMap.rawEndOf(nested + 3));
+
+        // Printer-added whitespace snaps to the neighbouring tokens.
+        int key = text.indexOf("\"n\"");
+        assertEquals(input.indexOf("\"n\""), sourceMap.rawStartOf(key - 2));
+    }
+
+    @Test
+    void parallelSourceMapShouldMatchSequential() {
+        MessageTransformer sequential = new MessageTransformer(Integer.MAX_VALUE);
+        MessageTransformer parallel = new MessageTransformer(16);
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < 3_000; i++) {
+            array.append(i == 0 ? "" : ", ").append("{\"id\":").append(i).append(",\"msg\":\"\\u4f60\"}");
+        }
+        String body = array.append("]").toString();
+
+        RenderResult expected = sequential.transformBody(body, "application/json");
+        RenderResult actual = parallel.transformBody(body, "application/json");
+        assertEquals(expected.sourceMap().size(), actual.sourceMap().size());
+        for (int offset = 0; offset <= expected.text().length(); offset += 37) {
+            assertEquals(expected.sourceMap().rawStartOf(offset), actual.sourceMap().rawStartOf(offset));
+            assertEquals(expected.sourceMap().rawEndOf(offset), actual.sourceMap().rawEndOf(offset));
+        }
+    }
+
+    @Test
+    void sourceMapShouldStaySmallerThanTheTextItMaps() {
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < 50_000; i++) {
+            array.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"v\":[1,2]}");
+        }
+        String body = array.append("]").toString();
+        RenderResult rendered = transformer.transformBody(body, "application/json");
+        SourceMap sourceMap = rendered.sourceMap();
+
+        // Half the size of the text in bytes, where a fixed-width entry per token would outweigh it.
+        assertTrue(sourceMap.byteSize() < rendered.text().length(),
+                sourceMap.byteSize() + " bytes of source map for " + rendered.text().length() + " chars");
+        int last = rendered.text().lastIndexOf("49999");
+        assertEquals(body.lastIndexOf("49999"), sourceMap.rawStartOf(last));
+        assertEquals(body.lastIndexOf("49999") + 5, sourceMap.rawEndOf(last + 5));
+    }
+
+    @Test
+    void rawSelectionShouldReturnByteOffsetsInTheMessage() {
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: application/json; charset=utf-8\r\n\r\n";
+        byte[] body = "{\"msg\":\"参数\",\"n\":7}".getBytes(StandardCharsets.UTF_8);
+        byte[] message = (head + new String(body, StandardCharsets.ISO_8859_1)).getBytes(StandardCharsets.ISO_8859_1);
+        HttpResponse response = response(head, body);
+
+        RenderResult rendered = transformer.renderResponse(response);
+        String text = rendered.text();
+
+        int seven = text.indexOf("7");
+        MessageTransformer.ByteRange range =
+                transformer.rawSelection(response, rendered.sourceMap(), rendered.rawLayout(), seven, seven + 1);
+        assertEquals("7", new String(message, range.start(), range.end() - range.start(), StandardCharsets.UTF_8));
+
+        int string = text.indexOf("\"参数\"");
+        range = transformer.rawSelection(response, rendered.sourceMap(), rendered.rawLayout(), string, string + 4);
+        assertEquals("\"参数\"", new String(message, range.start(), range.end() - range.start(), StandardCharsets.UTF_8));
+
+        int status = text.indexOf("200 OK");
+        range = transformer.rawSelection(response, rendered.sourceMap(), rendered.rawLayout(), status, status + 6);
+        assertEquals(head.indexOf("200 OK"), range.start());
+        assertEquals(head.indexOf("200 OK") + 6, range.end());
+    }
+
+    @Test
+    void renderShouldSummarizeLargeArraysOfRecords() {
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: application/json; charset=utf-8\r\n\r\n";
+        int count = ArraySummarizer.MIN_ELEMENTS + 2_000;
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            array.append(i == 0 ? "" : ",").append("{\"id\":").append(i)
+                    .append(",\"msg\":").append(i % 10 == 0 ? "null" : "\"\\u4f60\\u597d\"");
+            if (i % 2 == 0) {
+                array.append(",\"tags\":[1]");
+            }
+            array.append('}');
+        }
+        byte[] body = array.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        byte[] message = (head + new String(body, StandardCharsets.ISO_8859_1)).getBytes(StandardCharsets.ISO_8859_1);
+        HttpResponse response = response(head, body);
+
+        RenderResult summary = transformer.renderResponse(response);
+        String text = summary.text();
+        assertTrue(summary.summarized());
+        assertTrue(text.contains("\"count\" : " + count));
+        assertTrue(text.contains("\"id\" : {\n      \"number\" : " + count + "\n    }"));
+        assertTrue(text.contains("\"msg\" : {\n      \"string\" : " + (count - count / 10) + ",\n      \"null\" : " + count / 10));
+        assertTrue(text.contains("\"tags\" : {\n      \"array\" : " + count / 2 + ",\n      \"missing\" : " + count / 2));
+        assertTrue(text.contains("\"id\" : 4,"));
+        assertTrue(text.contains("\"id\" : " + (count - 1) + ","));
+        assertTrue(text.contains("你好"));
+        assertFalse(text.contains("\"id\" : " + count / 2 + ","));
+
+        // Sampled elements still map back to the raw message.
+        int last = text.lastIndexOf(String.valueOf(count - 1));
+        MessageTransformer.ByteRange range =
+                transformer.rawSelection(response, summary.sourceMap(), summary.rawLayout(), last, last + 5);
+        assertEquals(String.valueOf(count - 1), new String(message, range.start(), range.end() - range.start(),
+                StandardCharsets.UTF_8));
+
+        RenderResult full = transformer.renderResponseInFull(response);
+        assertFalse(full.summarized());
+        assertTrue(full.text().contains("\"id\" : " + count / 2 + ","));
+        assertEquals(full.text(), new MessageTransformer(Integer.MAX_VALUE).renderResponseInFull(response).text());
+    }
+
+    @Test
+    void renderShouldNotSummarizeArraysThatAreNotRecords() {
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n\r\n";
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < ArraySummarizer.MIN_ELEMENTS * 2; i++) {
+            array.append(i == 0 ? "" : ",").append(i % 100 == 0 ? "\"s\"" : "{\"id\":" + i + "}");
+        }
+        HttpResponse response = response(head, array.append(']').toString().getBytes(StandardCharsets.UTF_8));
+
+        RenderResult rendered = transformer.renderResponse(response);
+        assertFalse(rendered.summarized());
+        assertTrue(rendered.text().contains("\"id\" : " + (ArraySummarizer.MIN_ELEMENTS + 1) + "\n"));
+    }
+
+    @Test
+    void renderShouldNotSummarizeObjectsOfDifferentShapes() {
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n\r\n";
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < ArraySummarizer.MIN_ELEMENTS * 2; i++) {
+            array.append(i == 0 ? "" : ",").append(i % 2 == 0 ? "{\"user\":" : "{\"order\":").append(i).append('}');
+        }
+        HttpResponse response = response(head, array.append(']').toString().getBytes(StandardCharsets.UTF_8));
+
+        RenderResult rendered = transformer.renderResponse(response);
+        assertFalse(rendered.summarized());
+        assertTrue(rendered.text().contains("\"order\" : " + (ArraySummarizer.MIN_ELEMENTS + 1) + "\n"));
+    }
+
+    // Stands in for Burp's response: toString() and bodyToString() give one char per byte.
+    private static HttpResponse response(String head, byte[] body) {
+        String raw = head + new String(body, StandardCharsets.ISO_8859_1);
+        ByteArray bodyArray = byteArray(body);
+        return (HttpResponse) Proxy.newProxyInstance(HttpResponse.class.getClassLoader(),
+                new Class<?>[]{HttpResponse.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "toString" -> raw;
+                    case "body" -> bodyArray;
+                    case "bodyToString" -> raw.substring(head.length());
+                    case "bodyOffset" -> head.length();
+                    case "headerValue" -> "Content-Type".equalsIgnoreCase((String) args[0])
+                            ? "application/json; charset=utf-8" : null;
+                    default -> null;
+                });
+    }
+
+    private static ByteArray byteArray(byte[] bytes) {
+        return (ByteArray) Proxy.newProxyInstance(ByteArray.class.getClassLoader(),
+                new Class<?>[]{ByteArray.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getBytes" -> bytes;
+                    case "length" -> bytes.length;
+                    case "subArray" -> byteArray(Arrays.copyOfRange(bytes, (int) args[0], (int) args[1]));
+                    default -> null;
+                });
+    }
 }
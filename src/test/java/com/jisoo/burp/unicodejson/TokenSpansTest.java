@@ -0,0 +1,40 @@
+package com.jisoo.burp.unicodejson;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenSpansTest {
+    @Test
+    void lexJsonShouldClassifyKeysStringsNumbersAndKeywords() {
+        String json = "{\n  \"k\\\"x\" : \"v\",\n  \"n\" : -1.5e3,\n  \"b\" : [true, null]\n}";
+        TokenSpans spans = new TokenSpans();
+        TokenSpans.lexJson(json, 0, json.length(), spans);
+
+        assertEquals(7, spans.size());
+        assertSpan(json, spans, 0, "\"k\\\"x\"", TokenSpans.KEY);
+        assertSpan(json, spans, 1, "\"v\"", TokenSpans.STRING);
+        assertSpan(json, spans, 2, "\"n\"", TokenSpans.KEY);
+        assertSpan(json, spans, 3, "-1.5e3", TokenSpans.NUMBER);
+        assertSpan(json, spans, 4, "\"b\"", TokenSpans.KEY);
+        assertSpan(json, spans, 5, "true", TokenSpans.KEYWORD);
+        assertSpan(json, spans, 6, "null", TokenSpans.KEYWORD);
+    }
+
+    @Test
+    void firstEndingAfterShouldFindSpanCoveringOffset() {
+        TokenSpans spans = new TokenSpans();
+        spans.add(2, 3, TokenSpans.STRING);
+        spans.add(10, 4, TokenSpans.NUMBER);
+
+        assertEquals(0, spans.firstEndingAfter(0));
+        assertEquals(0, spans.firstEndingAfter(4));
+        assertEquals(1, spans.firstEndingAfter(5));
+        assertEquals(2, spans.firstEndingAfter(14));
+    }
+
+    private static void assertSpan(String text, TokenSpans spans, int index, String expected, byte type) {
+        assertEquals(expected, text.substring(spans.start(index), spans.end(index)));
+        assertEquals(type, spans.type(index));
+    }
+}
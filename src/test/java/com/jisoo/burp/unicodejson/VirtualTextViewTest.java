@@ -0,0 +1,36 @@
+package com.jisoo.burp.unicodejson;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VirtualTextViewTest {
+    @Test
+    void offsetsShouldMapToTheFontsOwnAdvances() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 3_000; i++) {
+            line.append(i % 7 == 0 ? '中' : i % 11 == 0 ? '—' : 'a');
+        }
+        VirtualTextView view = new VirtualTextView();
+        view.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        // Appended in pieces, so the line crosses chunk boundaries as well as checkpoints.
+        view.setText("short\n" + line.substring(0, 1_500));
+        view.append(line.substring(1_500) + "\nlast");
+        FontMetrics metrics = view.getFontMetrics(view.getFont());
+        char[] chars = line.toString().toCharArray();
+
+        // Far along the line first, so checkpoints are measured out of order.
+        for (int offset = chars.length; offset >= 0; offset -= 97) {
+            int x = metrics.charsWidth(chars, 0, offset);
+            assertEquals(x, view.xOf(6 + offset));
+            assertEquals(6 + offset, view.offsetAtX(1, x));
+        }
+        view.setFont(new Font(Font.SERIF, Font.PLAIN, 17));
+        FontMetrics serif = view.getFontMetrics(view.getFont());
+        assertEquals(serif.charsWidth(chars, 0, 2_500), view.xOf(6 + 2_500));
+        assertEquals(view.length(), view.offsetAtX(2, Integer.MAX_VALUE));
+    }
+}